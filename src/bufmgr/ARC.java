@@ -0,0 +1,198 @@
+package bufmgr;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Adaptive replacement cache policy (Megiddo and Modha). Resident pages are
+ * split between T1, pages seen once recently, and T2, pages seen at least
+ * twice. Ghost lists B1 and B2 remember the page numbers recently evicted
+ * from each. A miss that hits a ghost list shifts the target size p of T1
+ * toward the list that would have kept the page, so the policy adapts
+ * between recency and frequency as the workload changes.
+ */
+public class ARC extends Replacer {
+
+	// Frames that hold no page
+	private final FrameList free;
+
+	// Resident pages seen once and at least twice, least recent first
+	private final FrameList t1;
+	private final FrameList t2;
+
+	// Ghost page numbers evicted from T1 and T2, least recent first
+	private final LinkedHashSet<Integer> b1;
+	private final LinkedHashSet<Integer> b2;
+
+	// Page number each frame held when we last heard about it
+	private final int[] resident;
+
+	// Frames released as cold and not used since, which leave no ghost
+	private final boolean[] cold;
+
+	// Cache size and target size of T1
+	private final int c;
+	private int p;
+
+	public ARC(FrameDesc[] frametab) {
+		super(frametab);
+		c = frametab.length;
+		free = new FrameList(c);
+		t1 = new FrameList(c);
+		t2 = new FrameList(c);
+		b1 = new LinkedHashSet<>();
+		b2 = new LinkedHashSet<>();
+		resident = new int[c];
+		cold = new boolean[c];
+		for (int i = 0; i < c; i++) {
+			free.addLast(i);
+			resident[i] = INVALID_PAGEID;
+		}
+		p = 0;
+	}
+
+	@Override
+	public synchronized void newPage(FrameDesc fdesc) {
+		int f = slot(fdesc);
+
+		// The page being replaced becomes a ghost of its list
+		if ((resident[f] != INVALID_PAGEID) && (!cold[f])) {
+			if (t1.contains(f)) {
+				b1.add(resident[f]);
+			} else if (t2.contains(f)) {
+				b2.add(resident[f]);
+			}
+		}
+		free.remove(f);
+		t1.remove(f);
+		t2.remove(f);
+		cold[f] = false;
+
+		// Adapt the target on ghost hits
+		int pid = fdesc.pageno.pid;
+		resident[f] = pid;
+		if (b1.remove(pid)) {
+			p = Math.min(c, p + Math.max(b2.size() / Math.max(1, b1.size()), 1));
+			t2.addLast(f);
+		} else if (b2.remove(pid)) {
+			p = Math.max(0, p - Math.max(b1.size() / Math.max(1, b2.size()), 1));
+			t2.addLast(f);
+		} else {
+			t1.addLast(f);
+		}
+
+		// Keep the directory to at most twice the cache size
+		while ((b1.size() > 0) && (t1.size() + b1.size() > c)) {
+			removeOldest(b1);
+		}
+		while ((b2.size() > 0) && (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c)) {
+			removeOldest(b2);
+		}
+	}
+
+	@Override
+	public synchronized void freePage(FrameDesc fdesc) {
+		int f = slot(fdesc);
+		t1.remove(f);
+		t2.remove(f);
+		resident[f] = INVALID_PAGEID;
+		cold[f] = false;
+		free.addLast(f);
+	}
+
+	@Override
+	public synchronized void pinPage(FrameDesc fdesc) {
+		// A hit moves the page to the most recent end of T2
+		int f = slot(fdesc);
+		if (t1.contains(f) || t2.contains(f)) {
+			t1.remove(f);
+			t2.addLast(f);
+			cold[f] = false;
+		}
+	}
+
+	@Override
+	public void unpinPage(FrameDesc fdesc) {
+		// The reference was recorded when the page was pinned
+	}
+
+	@Override
+	public synchronized void coldPage(FrameDesc fdesc) {
+		// Next in line in T1, and not remembered once replaced; the page is
+		// still resident, so a hit can bring it back
+		int f = slot(fdesc);
+		if (t1.contains(f) || t2.contains(f)) {
+			t2.remove(f);
+			t1.addFirst(f);
+			cold[f] = true;
+		}
+	}
+
+	@Override
+	public synchronized void keepPage(FrameDesc fdesc) {
+		// Treat it as frequently used
+		int f = slot(fdesc);
+		if (t1.contains(f) || t2.contains(f)) {
+			t1.remove(f);
+			t2.addLast(f);
+		}
+	}
+
+	@Override
+	public synchronized long[] heat() {
+		long[] heat = new long[frametab.length];
+		rank(t2, heat, rank(t1, heat, 0));
+		return heat;
+	}
+
+	@Override
+	public synchronized int pickVictim() {
+		int victim = firstUnpinned(free);
+		if (victim == -1) {
+			// Cold pages wait at the front of T1 and go before any other page
+			victim = firstCold(t1, cold);
+		}
+		if (victim != -1) {
+			return victim;
+		}
+
+		// Replace from T1 while it is above its target, else from T2
+		if ((t1.size() > 0) && (t1.size() > p)) {
+			victim = firstUnpinned(t1);
+			if (victim == -1) {
+				victim = firstUnpinned(t2);
+			}
+		} else {
+			victim = firstUnpinned(t2);
+			if (victim == -1) {
+				victim = firstUnpinned(t1);
+			}
+		}
+		return victim;
+	}
+
+	@Override
+	public synchronized int pickVictims(int[] victims) {
+		// Same order as pickVictim(), carrying on down the lists
+		int count = addCold(t1, cold, victims, addUnpinned(free, victims, 0));
+		if ((t1.size() > 0) && (t1.size() > p)) {
+			count = addUnpinned(t1, victims, count);
+			return addUnpinned(t2, victims, count);
+		}
+		count = addUnpinned(t2, victims, count);
+		return addUnpinned(t1, victims, count);
+	}
+
+	@Override
+	public int victimOrder(int[] order) {
+		// Picking the victims only reads the lists
+		return pickVictims(order);
+	}
+
+	private static void removeOldest(LinkedHashSet<Integer> ghosts) {
+		Iterator<Integer> oldest = ghosts.iterator();
+		oldest.next();
+		oldest.remove();
+	}
+
+} // public class ARC extends Replacer
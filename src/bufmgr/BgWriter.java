@@ -0,0 +1,71 @@
+package bufmgr;
+
+/**
+ * Background writer thread for the buffer pool. Every round it writes back
+ * dirty, unpinned frames the replacer will evict next, so that
+ * victims are usually clean by the time a miss reaches them and the miss
+ * pays for a single read instead of a write plus a read. The rate is capped
+ * by the number of pages written per round and the delay between rounds.
+ */
+class BgWriter extends Thread {
+
+	// The buffer manager being cleaned
+	private final BufMgr bufmgr;
+
+	// Delay between rounds, in milliseconds
+	private final long delay;
+
+	// Most pages written in a single round
+	private final int maxPages;
+
+	// Fraction of dirty frames to leave alone beyond the clean-ahead zone
+	private final double dirtyRatio;
+
+	// Cleared to ask the thread to stop
+	private volatile boolean running;
+
+	/**
+	 * Constructs the writer; see BufMgr.startWriter().
+	 */
+	BgWriter(BufMgr bufmgr, long delay, int maxPages, double dirtyRatio) {
+		super("Minibase background writer");
+		setDaemon(true);
+		this.bufmgr = bufmgr;
+		this.delay = delay;
+		this.maxPages = maxPages;
+		this.dirtyRatio = dirtyRatio;
+		this.running = true;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			bufmgr.writeBehind(maxPages, dirtyRatio);
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException exc) {
+				// Woken up to stop, or to start the next round early
+			}
+		}
+	}
+
+	/**
+	 * Stops the writer and waits for its current round to finish.
+	 */
+	void shutdown() {
+		running = false;
+		interrupt();
+		boolean interrupted = false;
+		while (isAlive()) {
+			try {
+				join();
+			} catch (InterruptedException exc) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+} // class BgWriter extends Thread
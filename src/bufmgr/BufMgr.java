@@ -5,6 +5,29 @@ import global.Minibase;
 import global.Page;
 import global.PageId;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 /**
  * <h3>Minibase Buffer Manager</h3> The buffer manager manages an array of main
  * memory pages. The array is called the buffer pool, each page is called a
@@ -18,41 +41,172 @@ import global.PageId;
  * </ol>
  * The buffer manager is used by access methods, heap files, and relational
  * operators.
+ * <br><br>
+ * All services may be called from several threads at once. Pin counts are
+ * atomic, the page table is latched in stripes, and victim selection is
+ * latched inside the replacer; disk reads and writes are performed without
+ * holding any of these latches, so a miss on one page never blocks hits on
+ * other pages. Callers remain responsible for coordinating updates to the
+ * contents of a page that is pinned by more than one thread.
+ * <br><br>
+ * The frames can optionally live off the Java heap, as slices of one direct
+ * memory arena; the pool then adds nothing for the garbage collector to scan,
+ * and pages move between the arena and the file without an extra copy. Pages
+ * pinned from such a pool have no data array, so they must be accessed
+ * through the Page methods or getBuffer().
+ * <br><br>
+ * The pool can be grown and shrunk while in use, either directly through
+ * resize() or by a monitor that follows the JVM's heap usage. Its replacer
+ * can also be split into partitions, so that misses on different pages do not
+ * all contend for the same clock hand; the frame and page tables stay shared.
+ * Evicted pages can be kept compressed in a second-level cache, which misses
+ * look in before going to the disk.
  */
 public class BufMgr implements GlobalConst {
 
-	// Page container
-	Page[] bufferPool;
+	/** Largest piece of off-heap arena allocated as one buffer. */
+	public static final int ARENA_CHUNK = (1 << 30) / PAGE_SIZE * PAGE_SIZE;
+
+	// Page container; replaced as a whole when the pool grows
+	volatile Page[] bufferPool;
+
+	// Direct memory backing the frames, or null if they are on the heap
+	ByteBuffer[] arena;
 
-	// Frame container
-	FrameDesc[] frametab;
+	// Frame container; replaced as a whole when the pool grows
+	volatile FrameDesc[] frametab;
 
 	// Create a Page/Frame Mapper that will
 	// hold the page to frame relationships
 	PageFrameMap pageFrameMap;
 
-	Replacer replacer;
+	volatile Replacer replacer;
+
+	// Name of the replacement policy, for rebuilding the replacer
+	final String policy;
+
+	// Number of partitions the replacer splits the pool into
+	int partitions;
+
+	// Frames taken out of use by resize(); guarded by resizeLatch
+	volatile int retiredFrames;
+
+	// Serializes calls to resize()
+	private final Object resizeLatch = new Object();
+
+	// Heap usage monitor, while one is running
+	HeapMonitor monitor;
+
+	/** Most pages flushAllPages() writes with a single gathering write. */
+	public static final int FLUSH_RUN = 64;
+
+	/** Name the buffer manager is registered under by registerMBean(). */
+	public static final String MBEAN_NAME = "minibase:type=BufMgr";
+
+	// Hit, miss, eviction and flush counters
+	final PoolStats stats = new PoolStats();
+
+	// Number of frames with a non-zero pin count
+	final LongAdder pinnedFrames = new LongAdder();
+
+	// Background writer, while one is running
+	BgWriter writer;
+
+	/** Number of threads loading prefetched pages. */
+	public static final int PREFETCH_THREADS = 2;
+
+	// Threads that load prefetched pages, created on first use
+	ExecutorService prefetcher;
+
+	// Pages with a prefetch queued but not yet started
+	Set<Integer> prefetching;
+
+	// Number of prefetches queued or in progress
+	AtomicInteger pendingPrefetches;
+
+	// Compressed images of evicted pages, or null if there is no such cache
+	volatile CompressedCache cache;
+
+	// Trace of page events, while one is being recorded
+	volatile TraceWriter tracer;
 
 	/**
-	 * Constructs a buffer manager by initializing member data.
+	 * Constructs a buffer manager with the Clock replacement policy.
 	 * 
 	 * @param numframes
 	 *            number of frames in the buffer pool
 	 */
 	public BufMgr(int numframes) {
+		this(numframes, "Clock");
+	}
+
+	/**
+	 * Constructs a buffer manager by initializing member data.
+	 * 
+	 * @param numframes
+	 *            number of frames in the buffer pool
+	 * @param replacement_policy
+	 *            name of the replacement policy: Clock, GCLOCK, LRU, LRU-K,
+	 *            2Q or ARC (ignoring case)
+	 * @throws IllegalArgumentException
+	 *             if the replacement policy is unknown
+	 */
+	public BufMgr(int numframes, String replacement_policy) {
+		this(numframes, replacement_policy, false);
+	}
+
+	/**
+	 * Constructs a buffer manager, optionally keeping the frames off-heap.
+	 * 
+	 * @param numframes
+	 *            number of frames in the buffer pool
+	 * @param replacement_policy
+	 *            name of the replacement policy
+	 * @param offheap
+	 *            true to slice the frames out of direct memory
+	 * @throws IllegalArgumentException
+	 *             if the replacement policy is unknown
+	 */
+	public BufMgr(int numframes, String replacement_policy, boolean offheap) {
+		this(numframes, replacement_policy, offheap, 1);
+	}
+
+	/**
+	 * Constructs a buffer manager whose replacer is split into partitions.
+	 * 
+	 * @param numframes
+	 *            number of frames in the buffer pool
+	 * @param replacement_policy
+	 *            name of the replacement policy
+	 * @param offheap
+	 *            true to slice the frames out of direct memory
+	 * @param partitions
+	 *            number of partitions; see setPartitions()
+	 * @throws IllegalArgumentException
+	 *             if the replacement policy is unknown
+	 */
+	public BufMgr(int numframes, String replacement_policy, boolean offheap,
+			int partitions) {
 
 		// Initialize containers
 		bufferPool = new Page[numframes];
 		frametab = new FrameDesc[numframes];
+		if (offheap) {
+			arena = allocateArena(numframes);
+		}
 		for (int i = 0; i < numframes; i++) {
-			bufferPool[i] = new Page();
-			frametab[i] = new FrameDesc();
+			bufferPool[i] = offheap ? new Page(arenaSlice(arena, i)) : new Page();
+			frametab[i] = new FrameDesc(i);
 		}
 
-		replacer = new Clock(this);
-		pageFrameMap = new PageFrameMap();
+		policy = replacement_policy;
+		this.partitions = Math.max(1, partitions);
+		replacer = newReplacer();
+		pageFrameMap = new PageFrameMap(numframes);
+		prefetching = ConcurrentHashMap.newKeySet();
+		pendingPrefetches = new AtomicInteger();
 
-	} // public BufMgr(int numframes)
+	} // public BufMgr(int numframes, String replacement_policy, boolean offheap, int partitions)
 
 	/**
 	 * The result of this call is that disk page number pageno should reside in
@@ -83,8 +237,9 @@ public class BufMgr implements GlobalConst {
 	 *            Describes how the contents of the frame are determined.<br>
 	 *            If PIN_DISKIO, read the page from disk into the frame.<br>
 	 *            If PIN_MEMCPY, copy mempage into the frame.<br>
-	 *            If PIN_NOOP, copy nothing into the frame - the frame contents
-	 *            are irrelevant.<br>
+	 *            If PIN_NOOP, copy nothing into the frame - the frame is
+	 *            zeroed, so none of a previously evicted page shows
+	 *            through.<br>
 	 *            Note: In the cases of PIN_MEMCPY and PIN_NOOP, disk I/O is
 	 *            avoided.
 	 * @throws IllegalArgumentException
@@ -93,79 +248,180 @@ public class BufMgr implements GlobalConst {
 	 *             if all pages are pinned (i.e. pool is full)
 	 */
 	public void pinPage(PageId pageno, Page mempage, int contents) {
+		pinPage(pageno, mempage, contents, null);
+	}
 
-		// See if the page already is mapped into a frame
-		Integer frameNumber = pageFrameMap.getFrameFromPage(pageno.pid);
-		if (frameNumber == null) {
-			// There is no mapping for this page, go find a frame it can
-			// live in.
-			Integer framenum = replacer.pickVictim();
-			if (framenum != -1) {
-				// Found a frame for the page to live in
-				Page page = bufferPool[framenum];
-				FrameDesc frame = frametab[framenum];
-
-				if ((frame.isValid) && (frame.isDirty)) {
-					// The frame had a page in it that became dirty,
-					// so write it out to the disk before using the frame.
-					Minibase.DiskManager.write_page(frame.pageno, page);
-					frame.isDirty = false;
-				}
+	/**
+	 * Pins a page like pinPage(PageId, Page, int), but through the given
+	 * buffer ring: a miss recycles one of the ring's frames instead of
+	 * evicting a page from the shared pool, and a hit does not count as a
+	 * reference to the replacement policy. Pages pinned this way should be
+	 * unpinned through the same ring.
+	 * 
+	 * @param ring
+	 *            the buffer access strategy to use, or null for none
+	 * @see #newRing(int)
+	 */
+	public void pinPage(PageId pageno, Page mempage, int contents, BufferRing ring) {
 
-				switch (contents) {
-				case PIN_DISKIO: {
-					// Get the page from disk first, copy it into the frame in
-					// the
-					// buffer pool, set mempage to refer to it, update the frame
-					// descripters and update the hashmap.
-					Page diskpage = new Page();
-					Minibase.DiskManager.read_page(pageno, diskpage);
-					page.copyPage(diskpage);
-					mempage.setPage(page);
-					frame.pinCount++;
-					frame.isValid = true;
-					frame.isDirty = false;
-					frame.refBit = false;
-					frame.pageno = new PageId(pageno.pid);
-					pageFrameMap.addToMap(framenum, pageno.pid);
-					break;
-				}
-				case PIN_MEMCPY: {
-					// Copy page in mempage into the frame in the buffer pool,
-					// set mempage to refer to it, update the frame descripters
-					// and update the hashmap.
-					page.copyPage(mempage);
-					mempage.setPage(page);
-					frame.pinCount++;
-					frame.isValid = true;
-					frame.isDirty = false;
-					frame.refBit = false;
-					frame.pageno = new PageId(pageno.pid);
-					pageFrameMap.addToMap(framenum, pageno.pid);
-					break;
-				}
-				case PIN_NOOP: {
-					// This currently does nothing and is not called
-					break;
-				}
-				default: {
-					// Received an invalid operation
-					throw new IllegalArgumentException();
+		// Validate the operation before touching the pool
+		if ((contents != PIN_DISKIO) && (contents != PIN_MEMCPY)
+				&& (contents != PIN_NOOP)) {
+			// Received an invalid operation
+			throw new IllegalArgumentException();
+		}
+
+		fetchPage(pageno, mempage, contents, ring);
+		trace((contents == PIN_DISKIO) ? TraceWriter.PIN : TraceWriter.PIN_NEW, pageno.pid);
+
+	} // public void pinPage(PageId pageno, Page page, int contents, BufferRing ring)
+
+	/**
+	 * Does the work of pinPage() once the arguments are checked.
+	 */
+	private void fetchPage(PageId pageno, Page mempage, int contents, BufferRing ring) {
+
+		while (true) {
+			// See if the page already is mapped into a frame, and if so
+			// pin it and set mempage to refer to it.
+			int frameNumber = pinResident(pageno.pid);
+			if (frameNumber != -1) {
+				if (ring == null) {
+					replacer.pinPage(frametab[frameNumber]);
 				}
+				stats.hits.increment();
+				mempage.setPage(bufferPool[frameNumber]);
+				return;
+			}
+
+			// A queued prefetch of this page would only repeat our read
+			if (!prefetching.isEmpty()) {
+				prefetching.remove(pageno.pid);
+			}
+
+			// There is no mapping for this page, go find a frame it can
+			// live in. The claimed frame is unmapped, clean and pinned
+			// once on our behalf.
+			long missStart = System.nanoTime();
+			int framenum = (ring == null) ? claimVictim(pageno.pid) : claimRingFrame(ring, pageno.pid);
+			if (loadFrame(pageno, mempage, contents, framenum, missStart)) {
+				return;
+			}
+		}
+
+	} // private void fetchPage(PageId pageno, Page mempage, int contents, BufferRing ring)
+
+	/**
+	 * Maps a page into a claimed frame and fills the frame, unless another
+	 * thread mapped the page first; the frame is handed back in that case.
+	 * 
+	 * @return true if the page was loaded and mempage refers to it, false
+	 *         if the caller should pin the other thread's frame instead
+	 */
+	private boolean loadFrame(PageId pageno, Page mempage, int contents, int framenum,
+			long missStart) {
+
+		Page page = bufferPool[framenum];
+		FrameDesc frame = frametab[framenum];
+		if (!mapFrame(pageno.pid, framenum)) {
+			return false;
+		}
+
+		// The frame is ours; fill it without holding any latch.
+		boolean loaded = false;
+		try {
+			switch (contents) {
+			case PIN_DISKIO: {
+				// Inflate the page if the second-level cache has it,
+				// else read it from disk straight into the frame.
+				byte[] image = takeImage(pageno.pid);
+				if (image != null) {
+					CompressedCache.inflate(image, page);
+					stats.compressedHits.increment();
+				} else {
+					Minibase.DiskManager.read_page(pageno, page);
 				}
+				break;
+			}
+			case PIN_MEMCPY: {
+				// Copy page in mempage into the frame in the buffer
+				// pool.
+				takeImage(pageno.pid);
+				page.copyPage(mempage);
+				break;
+			}
+			default: {
+				// PIN_NOOP: the caller will initialize the frame, e.g.
+				// a freshly allocated page, so there is nothing to read;
+				// clear out the page the frame held before
+				takeImage(pageno.pid);
+				page.clearPage();
+				break;
+			}
+			}
+			loaded = true;
+		} finally {
+			if (loaded) {
+				finishLoad(frame);
 			} else {
-				// Buffer pool is completely full and there are no slots that
-				// can be reclaimed. Very bad news.
-				throw new IllegalStateException();
+				unmapFrame(pageno.pid, framenum);
 			}
-		} else {
-			// The page is already mapped to a frame. Pin it and set
-			// mempage to refer to it.
-			frametab[frameNumber].pinCount++;
-			mempage.setPage(bufferPool[frameNumber]);
 		}
+		stats.recordMiss(System.nanoTime() - missStart);
+
+		// Set mempage to refer to the frame
+		mempage.setPage(page);
+		return true;
+
+	} // private boolean loadFrame(PageId pageno, Page mempage, int contents, int framenum, long missStart)
+
+	/**
+	 * Maps a page into a claimed frame, unless another thread mapped the
+	 * page first; the frame is handed back in that case. The mapping is made
+	 * before any I/O, so that concurrent pins of the page wait for the load
+	 * instead of reading the page a second time or seeing a part-filled
+	 * frame.
+	 * 
+	 * @return false if the page was already mapped
+	 */
+	private boolean mapFrame(int pid, int framenum) {
+
+		FrameDesc frame = frametab[framenum];
+		synchronized (pageFrameMap.getLatch(pid)) {
+			if (pageFrameMap.getFrameFromPage(pid) != PageFrameMap.NO_MAPPING) {
+				// Another thread mapped the page while we were looking
+				// for a frame; hand ours back and pin theirs instead.
+				replacer.freePage(frame);
+				release(frame);
+				return false;
+			}
+			frame.isLoading = true;
+			frame.isDirty = false;
+			frame.pageno = new PageId(pid);
+			frame.isValid = true;
+			pageFrameMap.addToMap(framenum, pid);
+		}
+		replacer.newPage(frame);
+		return true;
+
+	} // private boolean mapFrame(int pid, int framenum)
+
+	/**
+	 * Drops the mapping of a frame whose load failed, wakes up anybody
+	 * waiting on the load and hands the frame back.
+	 */
+	private void unmapFrame(int pid, int framenum) {
+
+		FrameDesc frame = frametab[framenum];
+		synchronized (pageFrameMap.getLatch(pid)) {
+			pageFrameMap.removeFromMap(framenum, pid);
+			frame.isValid = false;
+		}
+		finishLoad(frame);
+		replacer.freePage(frame);
+		release(frame);
 
-	} // public void pinPage(PageId pageno, Page page, int contents)
+	} // private void unmapFrame(int pid, int framenum)
 
 	/**
 	 * Unpins a disk page from the buffer pool, decreasing its pin count.
@@ -178,30 +434,106 @@ public class BufMgr implements GlobalConst {
 	 *             if the page is not in the buffer pool or not pinned
 	 */
 	public void unpinPage(PageId pageno, boolean dirty) {
+		unpinPage(pageno, dirty, null);
+	}
+
+	/**
+	 * Unpins a page that was pinned through the given buffer ring. A page
+	 * the ring loaded into one of its own frames is reported to the
+	 * replacement policy as cold; other pages are left as they were.
+	 * 
+	 * @param ring
+	 *            the buffer access strategy used to pin the page, or null
+	 * @throws IllegalArgumentException
+	 *             if the page is not in the buffer pool or not pinned
+	 */
+	public void unpinPage(PageId pageno, boolean dirty, BufferRing ring) {
+		unpinPage(pageno, dirty, ring, PRIORITY_NORMAL);
+	}
+
+	/**
+	 * Unpins a page with a hint for how long it should stay resident once
+	 * nobody has it pinned: PRIORITY_KEEP for pages used over and over, such
+	 * as directory and space map pages, PRIORITY_EVICT_SOON for pages that
+	 * will not be needed again, and PRIORITY_NORMAL otherwise. The hint of
+	 * the last unpin wins.
+	 * 
+	 * @param priority
+	 *            PRIORITY_KEEP, PRIORITY_NORMAL or PRIORITY_EVICT_SOON
+	 * @throws IllegalArgumentException
+	 *             if the page is not in the buffer pool or not pinned, or
+	 *             the priority is invalid
+	 */
+	public void unpinPage(PageId pageno, boolean dirty, int priority) {
+		unpinPage(pageno, dirty, null, priority);
+	}
+
+	/**
+	 * Unpins a page pinned through a ring, or with a priority hint; the
+	 * ring's own frames are always cold.
+	 */
+	private void unpinPage(PageId pageno, boolean dirty, BufferRing ring, int priority) {
 
-		Integer frameNumber = pageFrameMap.getFrameFromPage(pageno.pid);
-		if ((frameNumber == null) || frametab[frameNumber].pinCount == 0) {
-			// We were told to unpin a page that was either not in the
-			// buffer pool or not even pinned.
+		if ((priority != PRIORITY_KEEP) && (priority != PRIORITY_NORMAL)
+				&& (priority != PRIORITY_EVICT_SOON)) {
 			throw new IllegalArgumentException();
-		} else {
-			FrameDesc frame = frametab[frameNumber];
+		}
+
+		int frameNumber = pageFrameMap.getFrameFromPage(pageno.pid);
+		if (frameNumber == PageFrameMap.NO_MAPPING) {
+			// We were told to unpin a page that was not in the
+			// buffer pool.
+			throw new IllegalArgumentException();
+		}
 
-			if (dirty) {
-				// Once your unpinned dirty you stay dirty until your written
-				// out to disk the next time the frame is pinned.
+		FrameDesc frame = frametab[frameNumber];
+
+		// Update the pin count, refusing to go below zero.
+		int count;
+		boolean marked = false;
+		do {
+			count = frame.pinCount.get();
+			if (count == 0) {
+				// We were told to unpin a page that was not even pinned.
+				throw new IllegalArgumentException();
+			}
+			if ((dirty) && (!marked)) {
+				// Once your unpinned dirty you stay dirty until your
+				// written out to disk the next time the frame is pinned.
+				// Mark it before releasing the pin so an evicting thread
+				// cannot miss it, and fail any optimistic read that
+				// overlapped the changes.
 				frame.isDirty = dirty;
+				bumpVersion(frame);
+				marked = true;
 			}
+		} while (!frame.pinCount.compareAndSet(count, count - 1));
 
-			// Update the pin count.
-			frame.pinCount--;
-			if (frame.pinCount == 0) {
-				// When all the pins are removed set the reference bit.
-				frame.refBit = true;
+		if (count == 1) {
+			// When all the pins are removed tell the replacer.
+			pinnedFrames.decrement();
+			if (ring != null) {
+				if (ring.holds(frameNumber, pageno.pid)) {
+					replacer.coldPage(frame);
+				}
+			} else if (priority == PRIORITY_KEEP) {
+				replacer.keepPage(frame);
+			} else if (priority == PRIORITY_EVICT_SOON) {
+				replacer.coldPage(frame);
+			} else {
+				replacer.unpinPage(frame);
 			}
 		}
 
-	} // public void unpinPage(PageId pageno, boolean dirty)
+		if (tracer != null) {
+			int op = (ring != null) ? TraceWriter.UNPIN_EVICT
+					: (priority == PRIORITY_KEEP) ? TraceWriter.UNPIN_KEEP
+					: (priority == PRIORITY_EVICT_SOON) ? TraceWriter.UNPIN_EVICT
+					: TraceWriter.UNPIN;
+			trace(dirty ? op | TraceWriter.DIRTY : op, pageno.pid);
+		}
+
+	} // private void unpinPage(PageId pageno, boolean dirty, BufferRing ring, int priority)
 
 	/**
 	 * Allocates a run of new disk pages and pins the first one in the buffer
@@ -220,6 +552,35 @@ public class BufMgr implements GlobalConst {
 	 *             if all pages are pinned (i.e. pool exceeded)
 	 */
 	public PageId newPage(Page firstpg, int run_size) {
+		return newPage(firstpg, run_size, PIN_MEMCPY);
+	}
+
+	/**
+	 * Allocates a run of new disk pages and pins the first one in the buffer
+	 * pool, using the given pin mode. With PIN_NOOP nothing is copied into
+	 * the frame, which starts out zeroed; firstpg just refers to it
+	 * afterwards, and the caller is expected to initialize the page in place.
+	 * 
+	 * @param firstpg
+	 *            input and output: holds the contents of the first allocated
+	 *            page (PIN_MEMCPY only) and refers to the frame where it
+	 *            resides
+	 * @param run_size
+	 *            input: number of pages to allocate
+	 * @param contents
+	 *            PIN_MEMCPY or PIN_NOOP
+	 * @return page id of the first allocated page
+	 * @throws IllegalArgumentException
+	 *             if firstpg is already pinned or contents is invalid
+	 * @throws IllegalStateException
+	 *             if all pages are pinned (i.e. pool exceeded)
+	 */
+	public PageId newPage(Page firstpg, int run_size, int contents) {
+
+		if ((contents != PIN_MEMCPY) && (contents != PIN_NOOP)) {
+			// A new page has nothing on disk worth reading
+			throw new IllegalArgumentException();
+		}
 
 		if (getNumUnpinned() == 0) {
 			// Buffer pool is already full with unpinned pages
@@ -228,97 +589,1640 @@ public class BufMgr implements GlobalConst {
 			// Allocate the disk pages, return id of first page
 			PageId pageno = Minibase.DiskManager.allocate_page(run_size);
 
-			Integer frameNumber = pageFrameMap.getFrameFromPage(pageno.pid);
-			if ((frameNumber != null) && (frametab[frameNumber].pinCount > 0)) {
+			int frameNumber = pageFrameMap.getFrameFromPage(pageno.pid);
+			if ((frameNumber != PageFrameMap.NO_MAPPING) && (frametab[frameNumber].pinCount.get() > 0)) {
 				// The first page is already mapped into the buffer pool and
 				// pinned
 				throw new IllegalArgumentException();
 			} else {
 				// Pin the first page and return its page id
-				pinPage(pageno, firstpg, PIN_MEMCPY);
+				pinPage(pageno, firstpg, contents);
 				return pageno;
 			}
 		}
 
-	} // public PageId newPage(Page firstpg, int run_size)
+	} // public PageId newPage(Page firstpg, int run_size, int contents)
 
 	/**
-	 * Deallocates a single page from disk, freeing it from the pool if needed.
+	 * Pins a batch of pages, like calling pinPage() for each but with one
+	 * pass over the page table for the resident pages and one victim search
+	 * for the rest. Either every page is pinned, or none is.
 	 * 
-	 * @param pageno
-	 *            identifies the page to remove
+	 * @param pagenos
+	 *            identifies the pages to pin
+	 * @param mempages
+	 *            output (or input for PIN_MEMCPY): one page per page id,
+	 *            made to refer to its frame
+	 * @param contents
+	 *            how to fill the frames of pages that are not resident
 	 * @throws IllegalArgumentException
-	 *             if the page is pinned
+	 *             if contents is invalid or the arrays differ in length
+	 * @throws IllegalStateException
+	 *             if there are not enough unpinned frames
 	 */
-	public void freePage(PageId pageno) {
+	public void pinPages(PageId[] pagenos, Page[] mempages, int contents) {
 
-		Integer frameNumber = pageFrameMap.getFrameFromPage(pageno.pid);
-		if ((frameNumber != null) && (frametab[frameNumber].pinCount > 0)) {
-			// The page is mapped into the buffer pool and pinned,
-			// so we can't free it.
+		// Validate the operation before touching the pool
+		if (((contents != PIN_DISKIO) && (contents != PIN_MEMCPY) && (contents != PIN_NOOP))
+				|| (pagenos.length != mempages.length)) {
 			throw new IllegalArgumentException();
-		} else {
-			// Deallocate the requested disk page
-			Minibase.DiskManager.deallocate_page(pageno);
 		}
 
-	} // public void freePage(PageId firstid)
+		// Pin the resident pages in one pass over the page table
+		int count = pagenos.length;
+		int[] frames = new int[count];
+		int misses = 0;
+		for (int i = 0; i < count; i++) {
+			frames[i] = pinResident(pagenos[i].pid);
+			if (frames[i] == -1) {
+				misses++;
+			} else {
+				replacer.pinPage(frametab[frames[i]]);
+				stats.hits.increment();
+				mempages[i].setPage(bufferPool[frames[i]]);
+			}
+		}
+		if (misses == 0) {
+			traceAll(pagenos, contents);
+			return;
+		}
+
+		// Claim frames for all the others at once, then load them
+		boolean[] pinned = new boolean[count];
+		boolean[] loaded = new boolean[count];
+		int[] claimed = null;
+		int used = 0;
+		try {
+			for (int i = 0; i < count; i++) {
+				pinned[i] = (frames[i] != -1);
+			}
+			long missStart = System.nanoTime();
+			claimed = claimVictims(misses);
+			if ((contents == PIN_DISKIO) && (misses > 1)) {
+				// Reads several pages at once, and hands back every claimed
+				// frame it does not load
+				used = claimed.length;
+				readFrames(pagenos, mempages, claimed, pinned, loaded, missStart);
+			} else {
+				for (int i = 0; i < count; i++) {
+					if (pinned[i]) {
+						continue;
+					}
+					if (loadFrame(pagenos[i], mempages[i], contents, claimed[used++], missStart)) {
+						loaded[i] = true;
+					} else {
+						// Somebody else brought the page in meanwhile
+						fetchPage(pagenos[i], mempages[i], contents, null);
+					}
+					pinned[i] = true;
+				}
+			}
+		} catch (RuntimeException exc) {
+			// Undo the whole batch
+			if (claimed != null) {
+				for (int j = used; j < claimed.length; j++) {
+					replacer.freePage(frametab[claimed[j]]);
+					release(frametab[claimed[j]]);
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				if (pinned[i]) {
+					unpinPage(pagenos[i], UNPIN_CLEAN);
+				}
+				if ((loaded[i]) && (contents != PIN_DISKIO)) {
+					// What we put in the frame is not the page on disk
+					dropResident(pagenos[i].pid);
+				}
+			}
+			throw exc;
+		}
+		traceAll(pagenos, contents);
+
+	} // public void pinPages(PageId[] pagenos, Page[] mempages, int contents)
 
 	/**
-	 * Write all valid and dirty frames to disk. Note flushing involves only
-	 * writing, not unpinning or freeing or the like.
-	 * 
+	 * Fills the claimed frames of a batch's missing pages from disk, starting
+	 * every read before waiting for any so that the disk manager has them in
+	 * flight together. Each page loaded is marked in pinned and loaded; each
+	 * claimed frame not loaded is handed back, even if this throws. Pages
+	 * somebody else mapped first, including later copies of a page named
+	 * twice, are pinned only once every read has finished, since their load
+	 * may be one of ours.
 	 */
-	public void flushAllPages() {
+	private void readFrames(PageId[] pagenos, Page[] mempages, int[] claimed,
+			boolean[] pinned, boolean[] loaded, long missStart) {
 
-		for (FrameDesc frame : frametab) {
-			if ((frame.isValid) && (frame.isDirty)) {
-				// Only flush frames that have valid pages that are dirty
-				flushPage(frame.pageno);
+		int count = pagenos.length;
+		int[] frames = new int[count];
+		Arrays.fill(frames, -1);
+		List<CompletableFuture<Void>> reads = new ArrayList<CompletableFuture<Void>>(count);
+		for (int i = 0; i < count; i++) {
+			reads.add(null);
+		}
+		boolean[] elsewhere = new boolean[count];
+		RuntimeException failure = null;
+		int used = 0;
+		try {
+			for (int i = 0; i < count; i++) {
+				if (pinned[i]) {
+					continue;
+				}
+				int framenum = claimed[used++];
+				if (!mapFrame(pagenos[i].pid, framenum)) {
+					// Pinned below, once our own loads are done
+					elsewhere[i] = true;
+					continue;
+				}
+				frames[i] = framenum;
+				byte[] image = takeImage(pagenos[i].pid);
+				if (image != null) {
+					CompressedCache.inflate(image, bufferPool[framenum]);
+					stats.compressedHits.increment();
+					reads.set(i, CompletableFuture.<Void> completedFuture(null));
+				} else {
+					reads.set(i, Minibase.DiskManager.readPageAsync(pagenos[i], bufferPool[framenum]));
+				}
+			}
+		} catch (RuntimeException exc) {
+			failure = exc;
+		}
+
+		// Hand back the frames we never got to, then finish the loads
+		for (int j = used; j < claimed.length; j++) {
+			replacer.freePage(frametab[claimed[j]]);
+			release(frametab[claimed[j]]);
+		}
+		for (int i = 0; i < count; i++) {
+			if (frames[i] == -1) {
+				continue;
+			}
+			boolean ok = false;
+			if (reads.get(i) != null) {
+				try {
+					reads.get(i).join();
+					ok = true;
+				} catch (CompletionException exc) {
+					if (failure == null) {
+						failure = (exc.getCause() instanceof RuntimeException)
+								? (RuntimeException) exc.getCause() : exc;
+					}
+				}
+			}
+			if (ok) {
+				finishLoad(frametab[frames[i]]);
+				stats.recordMiss(System.nanoTime() - missStart);
+				mempages[i].setPage(bufferPool[frames[i]]);
+				pinned[i] = true;
+				loaded[i] = true;
+			} else {
+				unmapFrame(pagenos[i].pid, frames[i]);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+
+		// Now pin the pages that were mapped by somebody else
+		for (int i = 0; i < count; i++) {
+			if (elsewhere[i]) {
+				fetchPage(pagenos[i], mempages[i], PIN_DISKIO, null);
+				pinned[i] = true;
 			}
 		}
 
-	} // public void flushAllFrames()
+	} // private void readFrames(...)
 
 	/**
-	 * Write a page in the buffer pool to disk, if dirty.
+	 * Unpins a batch of pages, like calling unpinPage() for each. Every page
+	 * that can be unpinned is, even if some cannot.
 	 * 
 	 * @throws IllegalArgumentException
-	 *             if the page is not in the buffer pool
+	 *             if any page is not in the buffer pool or not pinned
 	 */
-	public void flushPage(PageId pageno) {
+	public void unpinPages(PageId[] pagenos, boolean dirty) {
 
-		Integer frameNumber = pageFrameMap.getFrameFromPage(pageno.pid);
-		if ((frameNumber != null) && (frametab[frameNumber].isDirty)) {
-			// Write the page to disk
-			Minibase.DiskManager.write_page(pageno, bufferPool[frameNumber]);
-			frametab[frameNumber].isDirty = false;
-		} else {
-			// The page is not even in the buffer pool
-			throw new IllegalArgumentException();
+		IllegalArgumentException failure = null;
+		for (PageId pageno : pagenos) {
+			try {
+				unpinPage(pageno, dirty);
+			} catch (IllegalArgumentException exc) {
+				failure = exc;
+			}
+		}
+		if (failure != null) {
+			throw failure;
 		}
 
-	}
+	} // public void unpinPages(PageId[] pagenos, boolean dirty)
 
 	/**
-	 * Gets the total number of buffer frames.
+	 * Reads a resident page without pinning it. The reader is run directly
+	 * on the frame while nobody has the page pinned, and its result is only
+	 * returned if the frame's version shows that the page was neither
+	 * replaced nor unpinned dirty in the meantime; otherwise the caller gets
+	 * null and should pin the page as usual. Nothing is written to the frame
+	 * on this path, so threads reading a hot page do not contend for it.
+	 * <br><br>
+	 * The reader is given the frame's own page and may see it half way
+	 * through a change, so it must only read from the page, must not keep a
+	 * reference to it, and must cope with nonsense values; an exception it
+	 * throws is passed on only if the read turns out to be valid.
+	 * 
+	 * @param pageno
+	 *            identifies the page to read
+	 * @param reader
+	 *            extracts what the caller needs from the page
+	 * @return the reader's result, or null if the page is not resident,
+	 *         pinned, or changed during the read
 	 */
-	public int getNumFrames() {
-		return frametab.length;
+	public <T> T readOptimistic(PageId pageno, Function<Page, T> reader) {
+
+		int frameNumber = pageFrameMap.getFrameFromPage(pageno.pid);
+		if (frameNumber == PageFrameMap.NO_MAPPING) {
+			return null;
+		}
+		FrameDesc frame = frametab[frameNumber];
+		Page page = bufferPool[frameNumber];
+		long stamp = frame.version.tryOptimisticRead();
+		PageId loaded = frame.pageno;
+		if ((stamp == 0) || (frame.pinCount.get() != 0) || (!frame.isValid)
+				|| (frame.isLoading) || (loaded == null) || (loaded.pid != pageno.pid)
+				|| (page == null)) {
+			// Being replaced, or somebody might be changing it
+			return null;
+		}
+
+		T result;
+		try {
+			// The frame's own page, so the read allocates nothing
+			result = reader.apply(page);
+		} catch (RuntimeException exc) {
+			if (isUnchanged(frame, stamp)) {
+				throw exc;
+			}
+			return null;
+		}
+		if (!isUnchanged(frame, stamp)) {
+			return null;
+		}
+		stats.hits.increment();
+		trace(TraceWriter.READ, pageno.pid);
+		return result;
+
+	} // public <T> T readOptimistic(PageId pageno, Function<Page, T> reader)
+
+	/**
+	 * True if nothing changed the frame since the given stamp was taken and
+	 * nobody has it pinned. Validating first orders the reads of the page
+	 * before the check of the pin count.
+	 */
+	private static boolean isUnchanged(FrameDesc frame, long stamp) {
+		return (frame.version.validate(stamp)) && (frame.pinCount.get() == 0);
 	}
 
 	/**
-	 * Gets the total number of unpinned buffer frames.
+	 * Allocates a run of new disk pages and pins all of them, one page per
+	 * element of pages, using pinPages(). The run is deallocated again if it
+	 * cannot be pinned.
+	 * 
+	 * @param pages
+	 *            input and output: one page per page in the run, made to
+	 *            refer to its frame
+	 * @param contents
+	 *            PIN_MEMCPY or PIN_NOOP, as for newPage()
+	 * @return page id of the first allocated page
+	 * @throws IllegalArgumentException
+	 *             if a page in the run is already pinned or contents is
+	 *             invalid
+	 * @throws IllegalStateException
+	 *             if there are not enough unpinned frames
 	 */
-	public int getNumUnpinned() {
-		int unpinned_count = 0;
-		for (FrameDesc frame : frametab) {
-			if (frame.pinCount == 0) {
-				unpinned_count++;
+	public PageId newPages(Page[] pages, int contents) {
+
+		if (((contents != PIN_MEMCPY) && (contents != PIN_NOOP)) || (pages.length == 0)) {
+			throw new IllegalArgumentException();
+		}
+		if (getNumUnpinned() < pages.length) {
+			// Not enough room for the whole run
+			throw new IllegalStateException();
+		}
+
+		// Allocate the disk pages and work out their ids
+		PageId firstpg = Minibase.DiskManager.allocate_page(pages.length);
+		PageId[] pagenos = new PageId[pages.length];
+		for (int i = 0; i < pages.length; i++) {
+			pagenos[i] = new PageId(firstpg.pid + i);
+			int frameNumber = pageFrameMap.getFrameFromPage(pagenos[i].pid);
+			if ((frameNumber != PageFrameMap.NO_MAPPING) && (frametab[frameNumber].pinCount.get() > 0)) {
+				// A page in the run is already mapped and pinned
+				Minibase.DiskManager.deallocate_page(firstpg, pages.length);
+				throw new IllegalArgumentException();
 			}
 		}
 
-		return unpinned_count;
-	}
+		try {
+			pinPages(pagenos, pages, contents);
+		} catch (RuntimeException exc) {
+			Minibase.DiskManager.deallocate_page(firstpg, pages.length);
+			throw exc;
+		}
+		return firstpg;
+
+	} // public PageId newPages(Page[] pages, int contents)
+
+	/**
+	 * Deallocates a single page from disk, freeing it from the pool if needed.
+	 * 
+	 * @param pageno
+	 *            identifies the page to remove
+	 * @throws IllegalArgumentException
+	 *             if the page is pinned
+	 */
+	public void freePage(PageId pageno) {
+
+		if (!dropResident(pageno.pid)) {
+			// The page is mapped into the buffer pool and pinned, so we
+			// can't free it.
+			throw new IllegalArgumentException();
+		}
+
+		// Deallocate the requested disk page
+		trace(TraceWriter.FREE, pageno.pid);
+		takeImage(pageno.pid);
+		Minibase.DiskManager.deallocate_page(pageno);
+
+	} // public void freePage(PageId firstid)
+
+	/**
+	 * Drops the given page from the buffer pool without writing it back, if
+	 * it is resident and unpinned.
+	 * 
+	 * @return false if the page is pinned, true otherwise
+	 */
+	private boolean dropResident(int pid) {
+
+		int frameNumber = pageFrameMap.getFrameFromPage(pid);
+		if (frameNumber == PageFrameMap.NO_MAPPING) {
+			return true;
+		}
+		FrameDesc frame = frametab[frameNumber];
+		if (!tryPin(frame)) {
+			return false;
+		}
+
+		boolean dropped = false;
+		synchronized (pageFrameMap.getLatch(pid)) {
+			frame.isValid = false;
+			bumpVersion(frame);
+			if ((frame.pinCount.get() == 1)
+					&& (pageFrameMap.getFrameFromPage(pid) == frameNumber)) {
+				pageFrameMap.removeFromMap(frameNumber, pid);
+				frame.isDirty = false;
+				dropped = true;
+			} else {
+				frame.isValid = true;
+			}
+		}
+		if (dropped) {
+			replacer.freePage(frame);
+		}
+		release(frame);
+
+		// Somebody may have pinned the page while we were dropping it
+		return dropped;
+
+	} // private boolean dropResident(int pid)
+
+	/**
+	 * Write all valid and dirty frames to disk. Note flushing involves only
+	 * writing, not unpinning or freeing or the like. The pages are written in
+	 * page order, and runs of consecutive pages go out as one write, so a
+	 * full flush is a few sequential sweeps of the file.
+	 * 
+	 */
+	public void flushAllPages() {
+
+		// Collect the dirty pages and sort them by page id
+		FrameDesc[] frames = frametab;
+		int[] pids = new int[frames.length];
+		int count = 0;
+		for (FrameDesc frame : frames) {
+			PageId pageno = frame.pageno;
+			if ((frame.isValid) && (frame.isDirty) && (pageno != null)) {
+				// Only flush frames that have valid pages that are dirty
+				pids[count++] = pageno.pid;
+			}
+		}
+		Arrays.sort(pids, 0, count);
+
+		// Pin each run of consecutive pages while writing it, so none of
+		// them can be evicted or changed underneath the write; the runs are
+		// written asynchronously, up to the disk manager's queue depth
+		List<CompletableFuture<Void>> writes = new ArrayList<CompletableFuture<Void>>();
+		int[] run = new int[FLUSH_RUN];
+		int length = 0;
+		int first = INVALID_PAGEID;
+		for (int i = 0; i < count; i++) {
+			int pid = pids[i];
+			if ((length > 0) && ((pid != first + length) || (length == FLUSH_RUN))) {
+				writes.add(writeRun(first, run, length));
+				run = new int[FLUSH_RUN];
+				length = 0;
+			}
+
+			int frameNumber = pinResident(pid);
+			if (frameNumber == -1) {
+				// Evicted, and so written, since we looked
+				continue;
+			}
+			if (!frametab[frameNumber].isDirty) {
+				release(frametab[frameNumber]);
+				continue;
+			}
+			if (length == 0) {
+				first = pid;
+			}
+			run[length++] = frameNumber;
+		}
+		if (length > 0) {
+			writes.add(writeRun(first, run, length));
+		}
+		for (CompletableFuture<Void> write : writes) {
+			write.join();
+		}
+
+		// Pages written to a mapped database file still need forcing out
+		Minibase.DiskManager.force();
+
+	} // public void flushAllPages()
+
+	/**
+	 * Write a page in the buffer pool to disk, if dirty.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the page is not in the buffer pool
+	 */
+	public void flushPage(PageId pageno) {
+
+		if (!flushResident(pageno.pid)) {
+			// The page is not even in the buffer pool
+			throw new IllegalArgumentException();
+		}
+
+	}
+
+	/**
+	 * Asynchronously loads the given pages into unpinned frames, so that a
+	 * later pin finds them resident. Pages that are resident or already
+	 * queued are skipped, and a prefetch is silently dropped if a demand pin
+	 * loads the page first, the pool is full or the page id is invalid;
+	 * prefetching is only ever a hint.
+	 * 
+	 * @param pagenos
+	 *            identifies the pages to load
+	 */
+	public void prefetch(PageId... pagenos) {
+		prefetch(null, pagenos);
+	}
+
+	/**
+	 * Prefetches pages like prefetch(PageId...), loading and releasing them
+	 * through the given buffer ring, which may be the one the caller is
+	 * scanning through meanwhile.
+	 * 
+	 * @param ring
+	 *            the buffer access strategy to use, or null for none
+	 */
+	public void prefetch(final BufferRing ring, PageId... pagenos) {
+
+		for (PageId pageno : pagenos) {
+			final int pid = pageno.pid;
+			if ((pid == INVALID_PAGEID)
+					|| (pageFrameMap.getFrameFromPage(pid) != PageFrameMap.NO_MAPPING)
+					|| (!prefetching.add(pid))) {
+				// Nothing to do, or somebody is already on it
+				continue;
+			}
+			pendingPrefetches.incrementAndGet();
+			if (ring != null) {
+				ring.prefetchQueued();
+			}
+			getPrefetcher().execute(new Runnable() {
+				public void run() {
+					PageId target = new PageId(pid);
+					try {
+						// Skip pages that a demand pin got to first
+						if (prefetching.remove(pid)
+								&& (pageFrameMap.getFrameFromPage(pid) == PageFrameMap.NO_MAPPING)) {
+							// Release it the way the caller will, so a page
+							// loaded into one of the ring's frames is cold
+							pinPage(target, new Page(), PIN_DISKIO, ring);
+							unpinPage(target, UNPIN_CLEAN, ring);
+						}
+					} catch (IllegalStateException | IllegalArgumentException exc) {
+						// Pool full or no such page; it was only a hint
+					} finally {
+						if (ring != null) {
+							ring.prefetchDone();
+						}
+						if (pendingPrefetches.decrementAndGet() == 0) {
+							synchronized (pendingPrefetches) {
+								pendingPrefetches.notifyAll();
+							}
+						}
+					}
+				}
+			});
+		}
+
+	} // public void prefetch(final BufferRing ring, PageId... pagenos)
+
+	/**
+	 * Waits until every prefetch queued so far has finished, so that none of
+	 * them still holds a pin.
+	 */
+	public void awaitPrefetch() {
+
+		synchronized (pendingPrefetches) {
+			boolean interrupted = false;
+			while (pendingPrefetches.get() > 0) {
+				try {
+					// The last prefetch decrements before it takes the
+					// monitor to notify, so the wakeup cannot be missed
+					pendingPrefetches.wait();
+				} catch (InterruptedException exc) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+	} // public void awaitPrefetch()
+
+	/**
+	 * Waits until every prefetch queued so far through the given ring has
+	 * finished, leaving those of other rings and of the shared pool alone.
+	 * 
+	 * @param ring
+	 *            the buffer access strategy the prefetches went through
+	 */
+	public void awaitPrefetch(BufferRing ring) {
+		ring.awaitPrefetch();
+	}
+
+	/**
+	 * Waits for queued prefetches and stops the prefetch threads; they are
+	 * started again by the next prefetch.
+	 */
+	public synchronized void stopPrefetch() {
+
+		awaitPrefetch();
+		if (prefetcher != null) {
+			prefetcher.shutdown();
+			prefetcher = null;
+		}
+
+	} // public synchronized void stopPrefetch()
+
+	/**
+	 * Gets the pages resident in the buffer pool, hottest first as judged by
+	 * the replacement policy, so that they can be saved and brought back by
+	 * warmUp() after a restart.
+	 */
+	public int[] getResidentPages() {
+
+		FrameDesc[] frames = frametab;
+		final long[] heat = replacer.heat();
+		Integer[] order = new Integer[frames.length];
+		int count = 0;
+		for (int i = 0; (i < frames.length) && (i < heat.length); i++) {
+			if (frames[i].isValid) {
+				order[count++] = i;
+			}
+		}
+		Arrays.sort(order, 0, count, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(heat[b], heat[a]);
+			}
+		});
+
+		// Frames can change while we look; skip any that did
+		int[] pids = new int[count];
+		int resident = 0;
+		for (int i = 0; i < count; i++) {
+			PageId pageno = frames[order[i]].pageno;
+			if ((frames[order[i]].isValid) && (pageno != null)) {
+				pids[resident++] = pageno.pid;
+			}
+		}
+		return Arrays.copyOf(pids, resident);
+
+	} // public int[] getResidentPages()
+
+	/**
+	 * Loads the given pages into unpinned frames in the background, as saved
+	 * by getResidentPages() before a restart. Only as many of the hottest
+	 * pages as there are frames are loaded, in page order, with runs of
+	 * consecutive pages read together. Like prefetch() this is only a hint:
+	 * pages that are resident or pinned meanwhile are skipped, and the
+	 * warm-up stops quietly when the pool has no frames left to give.
+	 * 
+	 * @param pids
+	 *            pages to load, hottest first
+	 */
+	public void warmUp(int[] pids) {
+
+		int[] sorted = Arrays.copyOf(pids, Math.min(pids.length, getNumFrames()));
+		Arrays.sort(sorted);
+
+		int start = 0;
+		while (start < sorted.length) {
+			// Queue the next run of consecutive pages that need reading
+			int end = start;
+			while ((end < sorted.length) && (end - start < FLUSH_RUN)) {
+				int pid = sorted[end];
+				if ((end > start) && (pid != sorted[end - 1] + 1)) {
+					break;
+				}
+				if ((pid == INVALID_PAGEID)
+						|| (pageFrameMap.getFrameFromPage(pid) != PageFrameMap.NO_MAPPING)
+						|| (!prefetching.add(pid))) {
+					break;
+				}
+				end++;
+			}
+			if (end == start) {
+				// This page needs no reading
+				start++;
+				continue;
+			}
+
+			final int[] run = Arrays.copyOfRange(sorted, start, end);
+			pendingPrefetches.incrementAndGet();
+			getPrefetcher().execute(new Runnable() {
+				public void run() {
+					try {
+						loadRun(run);
+					} catch (IllegalStateException | IllegalArgumentException exc) {
+						// Pool full or no such page; it was only a hint
+					} finally {
+						if (pendingPrefetches.decrementAndGet() == 0) {
+							synchronized (pendingPrefetches) {
+								pendingPrefetches.notifyAll();
+							}
+						}
+					}
+				}
+			});
+			start = end;
+		}
+
+	} // public void warmUp(int[] pids)
+
+	/**
+	 * Loads a run of consecutive pages queued by warmUp() into unpinned
+	 * frames, reading each stretch of pages still wanted with one scattering
+	 * read.
+	 */
+	private void loadRun(int[] run) {
+
+		// Drop the pages a demand pin got to first
+		int[] pids = new int[run.length];
+		int count = 0;
+		for (int pid : run) {
+			if (prefetching.remove(pid)) {
+				pids[count++] = pid;
+			}
+		}
+		if (count == 0) {
+			return;
+		}
+
+		// Claim and map the frames, so that pins of these pages wait for
+		// the reads below
+		int[] frames = claimVictims(count);
+		boolean[] mapped = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			mapped[i] = mapFrame(pids[i], frames[i]);
+		}
+
+		// Inflate the pages the second-level cache has; the rest are read
+		// in runs around them
+		for (int i = 0; i < count; i++) {
+			byte[] image = mapped[i] ? takeImage(pids[i]) : null;
+			if (image == null) {
+				continue;
+			}
+			mapped[i] = false;
+			boolean loaded = false;
+			try {
+				CompressedCache.inflate(image, bufferPool[frames[i]]);
+				stats.compressedHits.increment();
+				loaded = true;
+			} finally {
+				if (loaded) {
+					finishLoad(frametab[frames[i]]);
+					trace(TraceWriter.PIN, pids[i]);
+					unpinPage(new PageId(pids[i]), UNPIN_CLEAN);
+				} else {
+					unmapFrame(pids[i], frames[i]);
+				}
+			}
+		}
+
+		int i = 0;
+		while (i < count) {
+			int j = i;
+			while ((j < count) && (mapped[j]) && ((j == i) || (pids[j] == pids[j - 1] + 1))) {
+				j++;
+			}
+			if (j == i) {
+				i++;
+				continue;
+			}
+
+			Page[] pages = new Page[j - i];
+			for (int k = i; k < j; k++) {
+				pages[k - i] = bufferPool[frames[k]];
+			}
+			boolean loaded = false;
+			try {
+				Minibase.DiskManager.read_pages(new PageId(pids[i]), pages);
+				loaded = true;
+			} finally {
+				for (int k = i; k < j; k++) {
+					if (loaded) {
+						finishLoad(frametab[frames[k]]);
+						trace(TraceWriter.PIN, pids[k]);
+						unpinPage(new PageId(pids[k]), UNPIN_CLEAN);
+					} else {
+						unmapFrame(pids[k], frames[k]);
+					}
+				}
+				if (!loaded) {
+					// Hand back the frames we never got to
+					for (int k = j; k < count; k++) {
+						if (mapped[k]) {
+							unmapFrame(pids[k], frames[k]);
+						}
+					}
+				}
+			}
+			i = j;
+		}
+
+	} // private void loadRun(int[] run)
+
+	/**
+	 * Returns true if the frames live in off-heap memory.
+	 */
+	public boolean isOffHeap() {
+		return arena != null;
+	}
+
+	/**
+	 * Allocates direct memory for the given number of frames. A single
+	 * ByteBuffer is limited to 2GB, so large pools get several chunks.
+	 */
+	private static ByteBuffer[] allocateArena(int numframes) {
+
+		long size = (long) numframes * PAGE_SIZE;
+		ByteBuffer[] chunks = new ByteBuffer[(int) ((size + ARENA_CHUNK - 1) / ARENA_CHUNK)];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = ByteBuffer.allocateDirect((int) Math.min(ARENA_CHUNK, size - (long) i * ARENA_CHUNK));
+		}
+		return chunks;
+
+	} // private static ByteBuffer[] allocateArena(int numframes)
+
+	/**
+	 * Gets a view of the arena memory for the given frame.
+	 */
+	private static ByteBuffer arenaSlice(ByteBuffer[] arena, int frame) {
+
+		long offset = (long) frame * PAGE_SIZE;
+		ByteBuffer chunk = arena[(int) (offset / ARENA_CHUNK)].duplicate();
+		int start = (int) (offset % ARENA_CHUNK);
+		chunk.limit(start + PAGE_SIZE);
+		chunk.position(start);
+		return chunk.slice();
+
+	} // private static ByteBuffer arenaSlice(ByteBuffer[] arena, int frame)
+
+	/**
+	 * Gets the prefetch threads, starting them if needed.
+	 */
+	private synchronized ExecutorService getPrefetcher() {
+
+		if (prefetcher == null) {
+			prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "Minibase prefetcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return prefetcher;
+
+	} // private synchronized ExecutorService getPrefetcher()
+
+	/**
+	 * Starts a background thread that writes dirty, unpinned frames ahead of
+	 * the replacer, so that misses rarely have to write a victim back
+	 * themselves. Each round cleans the next maxPages frames the replacer
+	 * will evict, in the order it will evict them, and keeps going (still
+	 * within maxPages writes) while more than dirtyRatio of the pool is
+	 * dirty. Any writer already running
+	 * is stopped first.
+	 * 
+	 * @param delay
+	 *            milliseconds to sleep between rounds
+	 * @param maxPages
+	 *            most pages to write in a round
+	 * @param dirtyRatio
+	 *            fraction of the pool allowed to stay dirty, 0.0 to 1.0
+	 */
+	public synchronized void startWriter(long delay, int maxPages, double dirtyRatio) {
+
+		if ((delay < 1) || (maxPages < 1) || (dirtyRatio < 0) || (dirtyRatio > 1)) {
+			throw new IllegalArgumentException();
+		}
+		stopWriter();
+		writer = new BgWriter(this, delay, maxPages, dirtyRatio);
+		writer.start();
+
+	} // public synchronized void startWriter(long delay, int maxPages, double dirtyRatio)
+
+	/**
+	 * Stops the background writer, if running, and waits for it to finish
+	 * its current round.
+	 */
+	public synchronized void stopWriter() {
+
+		if (writer != null) {
+			writer.shutdown();
+			writer = null;
+		}
+
+	} // public synchronized void stopWriter()
+
+	/**
+	 * Does one round of background writing; see startWriter().
+	 * 
+	 * @return number of pages written
+	 */
+	int writeBehind(int maxPages, double dirtyRatio) {
+
+		// How dirty is the pool to begin with? The frames are the
+		// replacer's, so that its order always fits them.
+		Replacer replacer = this.replacer;
+		FrameDesc[] frames = replacer.frametab;
+		int numframes = frames.length;
+		int dirty = 0;
+		for (FrameDesc frame : frames) {
+			if ((frame.isValid) && (frame.isDirty)) {
+				dirty++;
+			}
+		}
+		int target = (int) (dirtyRatio * numframes);
+
+		// Walk the frames in the order the replacer will evict them
+		int written = 0;
+		int[] order = new int[numframes];
+		int count = replacer.victimOrder(order);
+		for (int i = 0; (i < count) && (written < maxPages); i++) {
+			if ((i >= maxPages) && (dirty <= target)) {
+				// Past the clean-ahead zone and clean enough
+				break;
+			}
+
+			FrameDesc frame = frames[order[i]];
+			PageId pageno = frame.pageno;
+			if ((frame.isValid) && (frame.isDirty) && (frame.pinCount.get() == 0)
+					&& (pageno != null)) {
+				flushResident(pageno.pid);
+				written++;
+				dirty--;
+			}
+		}
+		return written;
+
+	} // int writeBehind(int maxPages, double dirtyRatio)
+
+	/**
+	 * Changes the number of frames in the buffer pool while it is in use.
+	 * Shrinking retires unpinned frames from the end of the pool, writing
+	 * them back first if dirty; pinned frames are skipped, so the pool may
+	 * end up larger than asked. Growing brings retired frames back before
+	 * adding new ones. Retired heap frames give their memory back to the
+	 * garbage collector; off-heap frames keep theirs for later growth.
+	 * 
+	 * @param numframes
+	 *            number of frames wanted
+	 * @return number of frames in the pool afterwards
+	 * @throws IllegalArgumentException
+	 *             if numframes is less than 1
+	 */
+	public int resize(int numframes) {
+
+		if (numframes < 1) {
+			throw new IllegalArgumentException();
+		}
+		synchronized (resizeLatch) {
+			int current = getNumFrames();
+			FrameDesc[] frames = frametab;
+
+			// Retire from the end, keeping a pin on each frame so that the
+			// replacer never hands it out again
+			for (int i = frames.length - 1; (i >= 0) && (current > numframes); i--) {
+				FrameDesc frame = frames[i];
+				if ((!frame.isRetired) && (claimFrame(i))) {
+					frame.isRetired = true;
+					replacer.freePage(frame);
+					if (arena == null) {
+						bufferPool[i] = null;
+					}
+					retiredFrames++;
+					current--;
+				}
+			}
+
+			// Bring retired frames back into use
+			for (int i = 0; (i < frames.length) && (current < numframes); i++) {
+				FrameDesc frame = frames[i];
+				if (frame.isRetired) {
+					if (bufferPool[i] == null) {
+						bufferPool[i] = new Page();
+					}
+					frame.isRetired = false;
+					retiredFrames--;
+					replacer.freePage(frame);
+					release(frame);
+					current++;
+				}
+			}
+
+			if (current < numframes) {
+				grow(numframes - current);
+			} else if (partitions > 1) {
+				// Leave retired frames out of the partitions, and take
+				// revived ones back in
+				rebuildReplacer();
+			}
+			return getNumFrames();
+		}
+
+	} // public int resize(int numframes)
+
+	/**
+	 * Adds new frames at the end of the pool. The frame table, buffer pool
+	 * and frame to page map are copied into larger arrays and published
+	 * before the replacer, which is rebuilt from the frames' current state,
+	 * so that any frame number the replacer hands out is already valid.
+	 * Called with resizeLatch held.
+	 */
+	private void grow(int count) {
+
+		int oldsize = frametab.length;
+		int newsize = oldsize + count;
+		Page[] pages = Arrays.copyOf(bufferPool, newsize);
+		FrameDesc[] frames = Arrays.copyOf(frametab, newsize);
+		ByteBuffer[] chunks = (arena != null) ? allocateArena(count) : null;
+		for (int i = oldsize; i < newsize; i++) {
+			pages[i] = (chunks != null) ? new Page(arenaSlice(chunks, i - oldsize)) : new Page();
+			frames[i] = new FrameDesc(i);
+		}
+
+		pageFrameMap.grow(newsize);
+		bufferPool = pages;
+		frametab = frames;
+
+		// Replacer state is sized by the frame table, so start a new one
+		rebuildReplacer();
+
+	} // private void grow(int count)
+
+	/**
+	 * Splits the replacer into the given number of partitions by page id,
+	 * each with its own instance of the replacement policy. A miss looks for
+	 * a victim in its page's partition first and takes one from another only
+	 * if every frame there is pinned. The frame table and page table are not
+	 * partitioned. The policies start afresh from the frames' current state,
+	 * so this is best done before the pool warms up.
+	 * 
+	 * @param count
+	 *            number of partitions; 1 turns partitioning off
+	 * @throws IllegalArgumentException
+	 *             if count is less than 1
+	 */
+	public void setPartitions(int count) {
+
+		if (count < 1) {
+			throw new IllegalArgumentException();
+		}
+		synchronized (resizeLatch) {
+			partitions = count;
+			rebuildReplacer();
+		}
+
+	} // public void setPartitions(int count)
+
+	/**
+	 * Gets the number of partitions the pool is split into.
+	 */
+	public int getNumPartitions() {
+		Replacer current = replacer;
+		return (current instanceof PartitionedReplacer)
+				? ((PartitionedReplacer) current).getNumPartitions() : 1;
+	}
+
+	/**
+	 * Constructs the replacer for the current frame table and partitions.
+	 */
+	private Replacer newReplacer() {
+		return (partitions > 1) ? new PartitionedReplacer(policy, frametab, partitions)
+				: Replacer.forName(policy, frametab);
+	}
+
+	/**
+	 * Replaces the replacer with a new one that knows about the resident
+	 * pages. Pins and unpins that race with this only cost the new replacer
+	 * some history. Called with resizeLatch held.
+	 */
+	private void rebuildReplacer() {
+
+		FrameDesc[] frames = frametab;
+		Replacer fresh = newReplacer();
+		for (FrameDesc frame : frames) {
+			if ((frame.isValid) && (!frame.isRetired)) {
+				fresh.newPage(frame);
+				if (frame.pinCount.get() == 0) {
+					fresh.unpinPage(frame);
+				}
+			}
+		}
+		fresh.addSweepSteps(replacer.getSweepSteps());
+		replacer = fresh;
+
+	} // private void rebuildReplacer()
+
+	/**
+	 * Starts a background thread that resizes the pool as the JVM's heap
+	 * fills up and drains. Whenever more than highWater of the maximum heap
+	 * is in use, the pool gives up a quarter of its frames (but keeps at
+	 * least minFrames); once usage falls below lowWater it grows back by an
+	 * eighth of its current size at a time, up to the size it had when the
+	 * monitor started. Any monitor already running is stopped first.
+	 * 
+	 * @param delay
+	 *            milliseconds between checks
+	 * @param minFrames
+	 *            fewest frames to shrink to
+	 * @param lowWater
+	 *            heap usage below which frames are taken back, 0.0 to 1.0
+	 * @param highWater
+	 *            heap usage above which frames are given up, 0.0 to 1.0
+	 */
+	public synchronized void startHeapMonitor(long delay, int minFrames,
+			double lowWater, double highWater) {
+
+		if ((delay < 1) || (minFrames < 1) || (lowWater < 0)
+				|| (lowWater > highWater) || (highWater > 1)) {
+			throw new IllegalArgumentException();
+		}
+		stopHeapMonitor();
+		monitor = new HeapMonitor(this, delay, minFrames, getNumFrames(), lowWater,
+				highWater);
+		monitor.start();
+
+	} // public synchronized void startHeapMonitor(...)
+
+	/**
+	 * Stops the heap usage monitor, if running, and waits for it to finish
+	 * its current check. The pool keeps whatever size it had.
+	 */
+	public synchronized void stopHeapMonitor() {
+
+		if (monitor != null) {
+			monitor.shutdown();
+			monitor = null;
+		}
+
+	} // public synchronized void stopHeapMonitor()
+
+	/**
+	 * Creates a buffer ring for bulk sequential access, such as a scan. The
+	 * ring is capped at an eighth of the pool so that several rings can be
+	 * active at once.
+	 * 
+	 * @param size
+	 *            number of frames wanted in the ring
+	 */
+	public BufferRing newRing(int size) {
+		return new BufferRing(Math.max(1, Math.min(size, getNumFrames() / 8)));
+	}
+
+	/**
+	 * Starts recording a trace of every pin, unpin, free and optimistic read
+	 * to the given file, replacing any trace being recorded already. The
+	 * trace can be replayed against any policy and pool size with
+	 * TraceSimulator. A trace that cannot be written is reported and
+	 * dropped; the pool carries on regardless.
+	 * 
+	 * @param fname
+	 *            name of the trace file, which is overwritten
+	 */
+	public synchronized void startTrace(String fname) {
+		stopTrace();
+		try {
+			tracer = new TraceWriter(fname, getNumFrames());
+		} catch (IOException exc) {
+			System.err.println("Could not start trace " + fname + ": " + exc);
+		}
+	}
+
+	/**
+	 * Stops recording the trace, if one is being recorded, and closes it.
+	 */
+	public synchronized void stopTrace() {
+		TraceWriter tracer = this.tracer;
+		if (tracer != null) {
+			this.tracer = null;
+			try {
+				tracer.close();
+			} catch (IOException exc) {
+				System.err.println("Could not finish trace: " + exc);
+			}
+		}
+	}
+
+	/**
+	 * Sets up a second-level cache that keeps compressed images of evicted
+	 * pages within the given memory budget, so that misses on them inflate
+	 * the image instead of reading the disk. Pages compressing to more than
+	 * three quarters of their size are not kept. Any cache set up before is
+	 * dropped; a budget of 0 turns the cache off.
+	 * 
+	 * @param budget
+	 *            most bytes the images may take up
+	 * @throws IllegalArgumentException
+	 *             if the budget is negative
+	 */
+	public void setCompressedCache(long budget) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("Negative cache budget: " + budget);
+		}
+		cache = (budget == 0) ? null : new CompressedCache(budget);
+	}
+
+	/**
+	 * Gets the number of pages in the second-level cache.
+	 */
+	public int getNumCompressed() {
+		CompressedCache cache = this.cache;
+		return (cache == null) ? 0 : cache.size();
+	}
+
+	/**
+	 * Gets the total number of buffer frames.
+	 */
+	public int getNumFrames() {
+		return frametab.length - retiredFrames;
+	}
+
+	/**
+	 * Gets the total number of unpinned buffer frames.
+	 */
+	public int getNumUnpinned() {
+		// The count can be briefly off while frames are pinned and
+		// unpinned, so keep it within bounds; retired frames stay pinned
+		int pinned = pinnedFrames.intValue();
+		return Math.max(0, Math.min(getNumFrames(), frametab.length - pinned));
+	}
+
+	/**
+	 * Takes a snapshot of the buffer pool counters. This scans the frame
+	 * table, but the counters themselves cost next to nothing to keep.
+	 */
+	public BufMgrStats stats() {
+		return new BufMgrStats(this);
+	}
+
+	/**
+	 * Registers this buffer manager with the platform MBean server under
+	 * MBEAN_NAME, replacing any buffer manager registered before it.
+	 */
+	public void registerMBean() {
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(new StatsBean(this), name);
+		} catch (JMException exc) {
+			// Monitoring is optional; carry on without it
+			System.err.println("Could not register " + MBEAN_NAME + ": " + exc);
+		}
+
+	} // public void registerMBean()
+
+	/**
+	 * Pins the given page if it is already mapped into a frame, waiting for
+	 * any load of the page that is still in progress. The common case reads
+	 * the page table and pins the frame without taking any latch or
+	 * allocating, then checks the frame still holds the page; see
+	 * claimFrame() for the other half of that handshake.
+	 * 
+	 * @return the pinned frame number, or -1 if the page is not resident
+	 */
+	private int pinResident(int pid) {
+
+		while (true) {
+			int frameNumber = pageFrameMap.getFrameFromPage(pid);
+			if (frameNumber == PageFrameMap.NO_MAPPING) {
+				// Confirm the miss under the latch, in case another
+				// thread is mapping the page right now; claiming a victim
+				// for it would evict a page for nothing.
+				synchronized (pageFrameMap.getLatch(pid)) {
+					frameNumber = pageFrameMap.getFrameFromPage(pid);
+					if (frameNumber == PageFrameMap.NO_MAPPING) {
+						return -1;
+					}
+					pin(frametab[frameNumber]);
+				}
+			} else {
+				pin(frametab[frameNumber]);
+			}
+
+			FrameDesc frame = frametab[frameNumber];
+			if (frame.isValid) {
+				awaitLoad(frame);
+				PageId loaded = frame.pageno;
+				if ((frame.isValid) && (loaded != null) && (loaded.pid == pid)) {
+					return frameNumber;
+				}
+			}
+
+			// The frame was claimed for another page, or the load we
+			// waited on failed; drop our pin and look again.
+			release(frame);
+		}
+
+	} // private int pinResident(int pid)
+
+	/**
+	 * Picks a victim frame and claims it for a new page. A claimed frame has
+	 * been written back if it was dirty, is no longer in the page table, and
+	 * carries a single pin owned by the caller. Disk writes happen without
+	 * holding any latch.
+	 * 
+	 * @param pid
+	 *            page the frame is for, or INVALID_PAGEID if not known yet
+	 * @return the claimed frame number
+	 * @throws IllegalStateException
+	 *             if all pages are pinned (i.e. pool is full)
+	 */
+	private int claimVictim(int pid) {
+
+		while (true) {
+			stats.victimSearches.increment();
+			int framenum = replacer.searchVictim(pid);
+			if (framenum == -1) {
+				// Buffer pool is completely full and there are no slots
+				// that can be reclaimed. Very bad news.
+				throw new IllegalStateException();
+			}
+			if (claimFrame(framenum)) {
+				return framenum;
+			}
+		}
+
+	} // private int claimVictim(int pid)
+
+	/**
+	 * Claims frames for a batch of new pages, taking as many as it can from
+	 * a single victim search and picking the rest one at a time.
+	 * 
+	 * @return the claimed frame numbers
+	 * @throws IllegalStateException
+	 *             if there are not enough unpinned frames
+	 */
+	private int[] claimVictims(int count) {
+
+		int[] victims = new int[count];
+		int picked = replacer.pickVictims(victims);
+
+		int claimed = 0;
+		try {
+			for (int i = 0; i < picked; i++) {
+				if (claimFrame(victims[i])) {
+					victims[claimed++] = victims[i];
+				}
+			}
+			while (claimed < count) {
+				victims[claimed] = claimVictim(INVALID_PAGEID);
+				claimed++;
+			}
+		} catch (IllegalStateException exc) {
+			// Hand back what we got
+			for (int i = 0; i < claimed; i++) {
+				replacer.freePage(frametab[victims[i]]);
+				release(frametab[victims[i]]);
+			}
+			throw exc;
+		}
+		return victims;
+
+	} // private int[] claimVictims(int count)
+
+	/**
+	 * Claims the ring's next frame for the given page, recycling the frame
+	 * if it still holds the page the ring put there and nobody else is
+	 * using it, and taking a victim from the shared pool otherwise. Only the
+	 * slot is taken with the ring's monitor held; writing back or
+	 * compressing the old page happens after it is released.
+	 * 
+	 * @return the claimed frame number
+	 * @throws IllegalStateException
+	 *             if all pages are pinned (i.e. pool is full)
+	 */
+	private int claimRingFrame(BufferRing ring, int pid) {
+
+		int slot, framenum, oldpid;
+		synchronized (ring) {
+			slot = ring.next;
+			ring.next = (slot + 1) % ring.frames.length;
+			framenum = ring.frames[slot];
+			oldpid = ring.pages[slot];
+
+			// Nobody may unpin into the slot while we recycle it
+			ring.pages[slot] = INVALID_PAGEID;
+		}
+
+		boolean claimed = false;
+		if (framenum != -1) {
+			FrameDesc frame = frametab[framenum];
+			PageId current = frame.pageno;
+			claimed = (frame.isValid) && (current != null) && (current.pid == oldpid)
+					&& (claimFrame(framenum));
+		}
+		if (!claimed) {
+			// The slot is empty, or its frame went back to the pool
+			framenum = claimVictim(pid);
+		}
+
+		synchronized (ring) {
+			ring.frames[slot] = framenum;
+			ring.pages[slot] = pid;
+		}
+		return framenum;
+
+	} // private int claimRingFrame(BufferRing ring, int pid)
+
+	/**
+	 * Tries to claim the given frame; see claimVictim().
+	 * 
+	 * @return true if the frame was claimed, false if somebody else got to it
+	 */
+	private boolean claimFrame(int framenum) {
+
+		FrameDesc frame = frametab[framenum];
+		if (!tryPin(frame)) {
+			// Pinned since the replacer looked at it
+			return false;
+		}
+		if (!frame.isValid) {
+			// Nothing lives in the frame
+			return true;
+		}
+
+		if (frame.isDirty) {
+			// The frame had a page in it that became dirty, so write it out
+			// to the disk before using the frame. The page stays mapped
+			// while we write so nobody can read a stale copy from disk.
+			frame.isDirty = false;
+			Minibase.DiskManager.write_page(frame.pageno, bufferPool[framenum]);
+			stats.dirtyEvictions.increment();
+		}
+
+		// Compress the page while it is still mapped; the image is only
+		// cached if the eviction goes through
+		CompressedCache cache = this.cache;
+		byte[] image = (cache != null) ? CompressedCache.compress(bufferPool[framenum]) : null;
+
+		PageId oldpage = frame.pageno;
+		synchronized (pageFrameMap.getLatch(oldpage.pid)) {
+			// Invalidate before checking the pin count: a thread pinning
+			// without the latch increments first and then checks validity,
+			// so one of us is bound to see the other.
+			frame.isValid = false;
+			bumpVersion(frame);
+			if ((frame.pinCount.get() == 1) && (!frame.isDirty)) {
+				// Nobody pinned or dirtied the page while it was written
+				pageFrameMap.removeFromMap(framenum, oldpage.pid);
+				if (image != null) {
+					// Cached under the latch, so a later miss on the
+					// page is bound to find it
+					cache.put(oldpage.pid, image);
+				}
+				stats.evictions.increment();
+				return true;
+			}
+			frame.isValid = true;
+		}
+
+		// Lost the race; leave the frame to whoever is using it
+		release(frame);
+		return false;
+
+	} // private boolean claimFrame(int framenum)
+
+	/**
+	 * Records a page event in the trace, if one is being recorded; a trace
+	 * that fails is dropped.
+	 */
+	private void trace(int op, int pid) {
+		TraceWriter tracer = this.tracer;
+		if (tracer == null) {
+			return;
+		}
+		try {
+			tracer.record(op, pid);
+		} catch (IOException exc) {
+			System.err.println("Could not write trace: " + exc);
+			stopTrace();
+		}
+	}
+
+	/**
+	 * Records the pins of a batch of pages in the trace.
+	 */
+	private void traceAll(PageId[] pagenos, int contents) {
+		if (tracer != null) {
+			for (PageId pageno : pagenos) {
+				trace((contents == PIN_DISKIO) ? TraceWriter.PIN : TraceWriter.PIN_NEW, pageno.pid);
+			}
+		}
+	}
+
+	/**
+	 * Takes the image of the given page out of the second-level cache, so
+	 * that the page is never in the pool and the cache at once.
+	 * 
+	 * @return the image, or null if the page is not cached
+	 */
+	private byte[] takeImage(int pid) {
+		CompressedCache cache = this.cache;
+		return (cache == null) ? null : cache.take(pid);
+	}
+
+	/**
+	 * Writes the given page to disk if it is resident and dirty, holding a
+	 * pin on it so that it cannot be evicted during the write.
+	 * 
+	 * @return false if the page is not in the buffer pool
+	 */
+	private boolean flushResident(int pid) {
+
+		int frameNumber = pinResident(pid);
+		if (frameNumber == -1) {
+			return false;
+		}
+
+		FrameDesc frame = frametab[frameNumber];
+		try {
+			if (frame.isDirty) {
+				// Clear the flag first so a concurrent update marks it again
+				frame.isDirty = false;
+				Minibase.DiskManager.write_page(frame.pageno, bufferPool[frameNumber]);
+				stats.flushes.increment();
+			}
+		} finally {
+			release(frame);
+		}
+		return true;
+
+	} // private boolean flushResident(int pid)
+
+	/**
+	 * Starts writing a run of pinned frames holding consecutive pages,
+	 * releasing the frames once the write is done.
+	 *
+	 * @return a future completed once the run has been written
+	 */
+	private CompletableFuture<Void> writeRun(int first, final int[] run, final int length) {
+
+		Page[] pages = new Page[length];
+		CompletableFuture<Void> write = null;
+		try {
+			for (int i = 0; i < length; i++) {
+				// Clear the flag first so a concurrent update marks it again
+				frametab[run[i]].isDirty = false;
+				pages[i] = bufferPool[run[i]];
+			}
+			write = Minibase.DiskManager.writePagesAsync(new PageId(first), pages);
+		} finally {
+			if (write == null) {
+				for (int i = 0; i < length; i++) {
+					release(frametab[run[i]]);
+				}
+			}
+		}
+		return write.whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void result, Throwable failure) {
+				if (failure == null) {
+					stats.flushes.add(length);
+				}
+				for (int i = 0; i < length; i++) {
+					release(frametab[run[i]]);
+				}
+			}
+		});
+
+	} // private CompletableFuture<Void> writeRun(int first, final int[] run, final int length)
+
+	/**
+	 * Changes the frame's version, failing any optimistic read in progress.
+	 */
+	private static void bumpVersion(FrameDesc frame) {
+		frame.version.unlockWrite(frame.version.writeLock());
+	}
+
+	/**
+	 * Adds a pin to the frame, counting it as pinned if it was not.
+	 * 
+	 * @return the new pin count
+	 */
+	private int pin(FrameDesc frame) {
+		int count = frame.pinCount.incrementAndGet();
+		if (count == 1) {
+			pinnedFrames.increment();
+		}
+		return count;
+	}
+
+	/**
+	 * Pins the frame only if nobody else has it pinned.
+	 */
+	private boolean tryPin(FrameDesc frame) {
+		if (frame.pinCount.compareAndSet(0, 1)) {
+			pinnedFrames.increment();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Drops a pin taken by pin() or tryPin().
+	 */
+	private void release(FrameDesc frame) {
+		if (frame.pinCount.decrementAndGet() == 0) {
+			pinnedFrames.decrement();
+		}
+	}
+
+	/**
+	 * Blocks until the given frame is no longer being loaded.
+	 */
+	private void awaitLoad(FrameDesc frame) {
+
+		if (!frame.isLoading) {
+			return;
+		}
+		long start = System.nanoTime();
+		synchronized (frame) {
+			boolean interrupted = false;
+			while (frame.isLoading) {
+				try {
+					frame.wait();
+				} catch (InterruptedException exc) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		stats.loadWaits.increment();
+		stats.loadWaitNanos.add(System.nanoTime() - start);
+
+	} // private void awaitLoad(FrameDesc frame)
+
+	/**
+	 * Marks the given frame as loaded and wakes up any waiting threads.
+	 */
+	private void finishLoad(FrameDesc frame) {
+
+		synchronized (frame) {
+			frame.isLoading = false;
+			frame.notifyAll();
+		}
+
+	} // private void finishLoad(FrameDesc frame)
 
 } // public class BufMgr implements GlobalConst
@@ -0,0 +1,61 @@
+package bufmgr;
+
+/**
+ * Management interface for the buffer manager, registered with the platform
+ * MBean server by BufMgr.registerMBean(). Every attribute is computed from
+ * a fresh BufMgr.stats() snapshot.
+ */
+public interface BufMgrMXBean {
+
+	/** Gets the total number of buffer frames. */
+	int getNumFrames();
+
+	/** Gets the number of frames nobody has pinned. */
+	int getNumUnpinned();
+
+	/** Gets the number of frames holding a modified page. */
+	int getNumDirty();
+
+	/** Gets the number of pins that found their page resident. */
+	long getHits();
+
+	/** Gets the number of pins that had to bring their page in. */
+	long getMisses();
+
+	/** Gets hits as a fraction of all pins, or 0 before the first pin. */
+	double getHitRatio();
+
+	/** Gets the number of pages dropped to make room for others. */
+	long getEvictions();
+
+	/** Gets the number of evicted pages that had to be written first. */
+	long getDirtyEvictions();
+
+	/** Gets the number of pages written by flushes and the writer. */
+	long getFlushes();
+
+	/** Gets the number of misses served from the compressed cache. */
+	long getCompressedHits();
+
+	/** Gets the memory taken up by the compressed cache, in bytes. */
+	long getCompressedBytes();
+
+	/** Gets the average number of frames examined per victim search. */
+	double getAverageSweepLength();
+
+	/** Gets the number of pins that waited for another thread's load. */
+	long getLoadWaits();
+
+	/** Gets the total time pins spent waiting for loads, in microseconds. */
+	long getLoadWaitMicros();
+
+	/** Gets the average miss service time, in microseconds. */
+	double getAverageMissMicros();
+
+	/**
+	 * Gets the miss service time histogram; element 0 counts misses under
+	 * 1us, and element i those from 2^(i-1) up to 2^i us.
+	 */
+	long[] getMissLatencyHistogram();
+
+} // public interface BufMgrMXBean
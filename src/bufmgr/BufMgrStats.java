@@ -0,0 +1,139 @@
+package bufmgr;
+
+/**
+ * Snapshot of the buffer pool counters, as returned by BufMgr.stats(). The
+ * counters are read one at a time while the pool keeps running, so a
+ * snapshot is only approximately consistent.
+ */
+public class BufMgrStats implements BufMgrMXBean {
+
+	private final int numFrames;
+	private final int numUnpinned;
+	private final int numDirty;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long dirtyEvictions;
+	private final long flushes;
+	private final long compressedHits;
+	private final long compressedBytes;
+	private final long victimSearches;
+	private final long sweepSteps;
+	private final long loadWaits;
+	private final long loadWaitNanos;
+	private final long missNanos;
+	private final long[] missLatency;
+
+	/**
+	 * Takes a snapshot of the given buffer manager.
+	 */
+	BufMgrStats(BufMgr bufmgr) {
+
+		PoolStats stats = bufmgr.stats;
+		numFrames = bufmgr.getNumFrames();
+		numUnpinned = bufmgr.getNumUnpinned();
+		int dirty = 0;
+		for (FrameDesc frame : bufmgr.frametab) {
+			if ((frame.isValid) && (frame.isDirty)) {
+				dirty++;
+			}
+		}
+		numDirty = dirty;
+
+		hits = stats.hits.sum();
+		misses = stats.misses.sum();
+		evictions = stats.evictions.sum();
+		dirtyEvictions = stats.dirtyEvictions.sum();
+		flushes = stats.flushes.sum();
+		compressedHits = stats.compressedHits.sum();
+		CompressedCache cache = bufmgr.cache;
+		compressedBytes = (cache == null) ? 0 : cache.getUsed();
+		victimSearches = stats.victimSearches.sum();
+		sweepSteps = bufmgr.replacer.getSweepSteps();
+		loadWaits = stats.loadWaits.sum();
+		loadWaitNanos = stats.loadWaitNanos.sum();
+		missNanos = stats.missNanos.sum();
+		missLatency = new long[PoolStats.LATENCY_BUCKETS];
+		for (int i = 0; i < missLatency.length; i++) {
+			missLatency[i] = stats.missLatency.get(i);
+		}
+
+	} // BufMgrStats(BufMgr bufmgr)
+
+	public int getNumFrames() {
+		return numFrames;
+	}
+
+	public int getNumUnpinned() {
+		return numUnpinned;
+	}
+
+	public int getNumDirty() {
+		return numDirty;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public double getHitRatio() {
+		long pins = hits + misses;
+		return (pins == 0) ? 0 : (double) hits / pins;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public long getDirtyEvictions() {
+		return dirtyEvictions;
+	}
+
+	public long getFlushes() {
+		return flushes;
+	}
+
+	public long getCompressedHits() {
+		return compressedHits;
+	}
+
+	public long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	public double getAverageSweepLength() {
+		return (victimSearches == 0) ? 0 : (double) sweepSteps / victimSearches;
+	}
+
+	public long getLoadWaits() {
+		return loadWaits;
+	}
+
+	public long getLoadWaitMicros() {
+		return loadWaitNanos / 1000;
+	}
+
+	public double getAverageMissMicros() {
+		return (misses == 0) ? 0 : missNanos / 1000.0 / misses;
+	}
+
+	public long[] getMissLatencyHistogram() {
+		return missLatency.clone();
+	}
+
+	/**
+	 * Summarizes the snapshot on one line.
+	 */
+	public String toString() {
+		return String.format("frames=%d unpinned=%d dirty=%d hits=%d misses=%d"
+				+ " hitRatio=%.3f evictions=%d dirtyEvictions=%d flushes=%d"
+				+ " sweep=%.2f missUs=%.1f", numFrames, numUnpinned, numDirty,
+				hits, misses, getHitRatio(), evictions, dirtyEvictions, flushes,
+				getAverageSweepLength(), getAverageMissMicros());
+	}
+
+} // public class BufMgrStats implements BufMgrMXBean
@@ -0,0 +1,101 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * <h3>Buffer Ring</h3>
+ * A small private ring of frames used as a buffer access strategy for bulk
+ * sequential access, such as a heap file scan. Pages pinned through a ring
+ * are loaded into the ring's own frames, which are recycled in turn, so a
+ * long scan replaces at most the size of the ring instead of the whole pool.
+ * Pages that are already resident are simply pinned, without counting as a
+ * reference to the replacement policy.
+ * <br><br>
+ * Rings are obtained from BufMgr.newRing() and passed to the ring-aware
+ * pinPage(), unpinPage(), prefetch() and awaitPrefetch() methods. A ring may
+ * be shared by a scan and the prefetches it issues: its slots are only read
+ * or changed with the ring's monitor held, and the scan can wait for just
+ * its own prefetches before it ends.
+ */
+public class BufferRing {
+
+	// Frame used by each slot, or -1 if the slot is still empty; guarded
+	// by the ring's monitor, like the fields below
+	final int[] frames;
+
+	// Page each slot loaded into its frame
+	final int[] pages;
+
+	// Slot to recycle next
+	int next;
+
+	// Prefetches queued through the ring and not finished yet
+	private int pending;
+
+	/**
+	 * Constructs an empty ring; see BufMgr.newRing().
+	 */
+	BufferRing(int size) {
+		frames = new int[size];
+		pages = new int[size];
+		Arrays.fill(frames, -1);
+		Arrays.fill(pages, -1);
+		next = 0;
+	}
+
+	/**
+	 * Gets the number of frames in the ring.
+	 */
+	public int getSize() {
+		return frames.length;
+	}
+
+	/**
+	 * True if the given frame belongs to the ring and still holds the page
+	 * the ring loaded into it, rather than one loaded by another pinner
+	 * after the frame went back to the pool.
+	 */
+	synchronized boolean holds(int framenum, int pid) {
+		for (int i = 0; i < frames.length; i++) {
+			if ((frames[i] == framenum) && (pages[i] == pid)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Counts a prefetch queued through the ring.
+	 */
+	synchronized void prefetchQueued() {
+		pending++;
+	}
+
+	/**
+	 * Counts a prefetch through the ring as finished, waking up anyone
+	 * waiting for the last one.
+	 */
+	synchronized void prefetchDone() {
+		if (--pending == 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until every prefetch queued through the ring has finished.
+	 */
+	synchronized void awaitPrefetch() {
+		boolean interrupted = false;
+		while (pending > 0) {
+			try {
+				wait();
+			} catch (InterruptedException exc) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+} // public class BufferRing
@@ -12,55 +12,101 @@ public class Clock extends Replacer {
 
 	private int counter;
 
-	public Clock(BufMgr bufmgr) {
-		super(bufmgr);
+	// Frames unpinned with a keep hint, which get a second reference bit
+	private final boolean[] kept;
+
+	public Clock(FrameDesc[] frametab) {
+		super(frametab);
 		counter = 0;
+		kept = new boolean[frametab.length];
 	}
 
 	@Override
 	public void newPage(FrameDesc fdesc) {
-		// TODO Auto-generated method stub
-
+		// A new page has not been referenced since it was loaded
+		fdesc.refBit = false;
+		kept[slot(fdesc)] = false;
 	}
 
 	@Override
 	public void freePage(FrameDesc fdesc) {
-		// TODO Auto-generated method stub
-
+		// Nothing worth keeping; let the hand take it next time round
+		fdesc.refBit = false;
+		kept[slot(fdesc)] = false;
 	}
 
 	@Override
 	public void pinPage(FrameDesc fdesc) {
-		// TODO Auto-generated method stub
-
+		// The reference is recorded when the last pin goes away
 	}
 
 	@Override
 	public void unpinPage(FrameDesc fdesc) {
-		// TODO Auto-generated method stub
+		// When all the pins are removed set the reference bit.
+		fdesc.refBit = true;
+		kept[slot(fdesc)] = false;
+	}
+
+	@Override
+	public void coldPage(FrameDesc fdesc) {
+		// Leave the bit clear so the next sweep takes it
+		fdesc.refBit = false;
+		kept[slot(fdesc)] = false;
+	}
+
+	@Override
+	public void keepPage(FrameDesc fdesc) {
+		// Survives one more trip of the hand than a referenced page
+		kept[slot(fdesc)] = true;
+		fdesc.refBit = true;
+	}
+
+	@Override
+	public long[] heat() {
+		long[] heat = new long[frametab.length];
+		for (int f = 0; f < heat.length; f++) {
+			heat[f] = (kept[f] ? 2 : 0) + (frametab[f].refBit ? 1 : 0);
+		}
+		return heat;
+	}
 
+	@Override
+	public int getHand() {
+		return counter;
 	}
 
+	/**
+	 * Sweeps the clock hand over the frame table. The sweep is latched on the
+	 * replacer so that concurrent misses do not race for the hand; the frame
+	 * returned is only a candidate until the buffer manager claims it.
+	 */
 	@Override
-	public int pickVictim() {
-		// Go around two times if necessary
-		for (int i = 0; i < (frametab.length * 2); i++) {
-			if (!frametab[counter].isValid) {
+	public synchronized int pickVictim() {
+		// Go around three times if necessary
+		for (int i = 0; i < (frametab.length * 3); i++) {
+			int current = counter;
+
+			// increment current, mod N
+			counter = (counter + 1) % frametab.length;
+
+			if (!frametab[current].isValid) {
 				// data in is not valid, choose current
-				return counter;
-			} else if (frametab[counter].pinCount == 0) {
+				if (isUnpinned(current)) {
+					return current;
+				}
+			} else if (isUnpinned(current)) {
 				// frame is not pinned
-				if (frametab[counter].refBit) {
+				if (kept[current]) {
+					// spend the second bit first
+					kept[current] = false;
+				} else if (frametab[current].refBit) {
 					// set reference bit and continue
-					frametab[counter].refBit = false;
+					frametab[current].refBit = false;
 				} else {
 					// unpinned that has not been referenced recently
-					return counter;
+					return current;
 				}
 			}
-
-			// increment current, mod N
-			counter = (counter + 1) % frametab.length;
 		}
 
 		// Could not find a frame, return error
@@ -0,0 +1,155 @@
+package bufmgr;
+
+import global.GlobalConst;
+import global.Page;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Second-level cache of compressed images of pages evicted from the buffer
+ * pool, bounded by a memory budget. Only clean pages are kept, so an image
+ * is always the same as the page on disk, and a miss that finds its page here
+ * inflates it instead of reading it. Images are handed back on use rather
+ * than copied, so a page is never in the pool and in the cache at once; when
+ * the budget runs out the least recently added images go first.
+ */
+class CompressedCache implements GlobalConst {
+
+	/** Bytes charged per image on top of its length, for the map entry. */
+	static final int ENTRY_OVERHEAD = 64;
+
+	/** Images larger than this are not worth keeping. */
+	static final int MAX_IMAGE = PAGE_SIZE * 3 / 4;
+
+	// Each thread compresses and inflates with its own codec
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_SPEED);
+		}
+	};
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	// Compressed images by page id, oldest first
+	private final LinkedHashMap<Integer, byte[]> images = new LinkedHashMap<Integer, byte[]>();
+
+	// Most bytes the images may take up
+	private final long budget;
+
+	// Bytes the images take up now
+	private long used;
+
+	/**
+	 * Constructs an empty cache holding at most budget bytes of images.
+	 */
+	CompressedCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Compresses the given page, without touching the cache.
+	 *
+	 * @return the image, or null if the page does not compress well enough
+	 */
+	static byte[] compress(Page page) {
+
+		byte[] data = new byte[PAGE_SIZE];
+		page.getBytes(0, data, 0, PAGE_SIZE);
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+
+		// Anything that does not fit in the buffer is too big anyway
+		byte[] buffer = new byte[MAX_IMAGE + 1];
+		int length = deflater.deflate(buffer);
+		if ((!deflater.finished()) || (length > MAX_IMAGE)) {
+			return null;
+		}
+		byte[] image = new byte[length];
+		System.arraycopy(buffer, 0, image, 0, length);
+		return image;
+
+	} // static byte[] compress(Page page)
+
+	/**
+	 * Adds the image of a page, replacing any image of it already here, and
+	 * drops the oldest images until the cache is back within budget.
+	 */
+	synchronized void put(int pid, byte[] image) {
+
+		byte[] old = images.put(pid, image);
+		if (old != null) {
+			used -= old.length + ENTRY_OVERHEAD;
+		}
+		used += image.length + ENTRY_OVERHEAD;
+
+		Iterator<Map.Entry<Integer, byte[]>> iter = images.entrySet().iterator();
+		while ((used > budget) && (iter.hasNext())) {
+			used -= iter.next().getValue().length + ENTRY_OVERHEAD;
+			iter.remove();
+		}
+
+	} // synchronized void put(int pid, byte[] image)
+
+	/**
+	 * Removes the image of the given page, if there is one.
+	 *
+	 * @return the image, or null if the page is not cached
+	 */
+	synchronized byte[] take(int pid) {
+		byte[] image = images.remove(pid);
+		if (image != null) {
+			used -= image.length + ENTRY_OVERHEAD;
+		}
+		return image;
+	}
+
+	/**
+	 * Inflates an image taken from the cache into the given page.
+	 *
+	 * @throws IllegalStateException
+	 *             if the image is corrupt
+	 */
+	static void inflate(byte[] image, Page page) {
+
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(image);
+		byte[] data = new byte[PAGE_SIZE];
+		try {
+			if (inflater.inflate(data) != PAGE_SIZE) {
+				throw new IllegalStateException("Truncated page image");
+			}
+		} catch (DataFormatException exc) {
+			throw new IllegalStateException("Corrupt page image", exc);
+		}
+		page.setBytes(data, 0, 0, PAGE_SIZE);
+
+	} // static void inflate(byte[] image, Page page)
+
+	/**
+	 * Gets the number of pages cached.
+	 */
+	synchronized int size() {
+		return images.size();
+	}
+
+	/**
+	 * Gets the number of bytes the images take up, overhead included.
+	 */
+	synchronized long getUsed() {
+		return used;
+	}
+
+} // class CompressedCache implements GlobalConst
@@ -2,24 +2,51 @@ package bufmgr;
 
 import global.PageId;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
 /**
- * This class maintains the relevant state information for a frame.  
+ * This class maintains the relevant state information for a frame.
+ * The pin count is atomic and the flags are volatile so that frames can be
+ * pinned and unpinned from several threads without a pool-wide lock.
  */
 public class FrameDesc {
-    protected boolean isDirty;
-    protected int pinCount;
-    protected boolean isValid;
-    protected boolean refBit;
-    protected PageId pageno; 
-   
+    protected volatile boolean isDirty;
+    protected final AtomicInteger pinCount;
+    protected volatile boolean isValid;
+    protected volatile boolean refBit;
+    protected volatile PageId pageno;
+
+    /** Position of this frame in the buffer pool. */
+    protected final int index;
+
+    /** True while the frame's contents are being loaded; guarded by this. */
+    protected volatile boolean isLoading;
+
+    /** True while the frame is taken out of use by BufMgr.resize(). */
+    protected volatile boolean isRetired;
+
+    /**
+     * Version stamp for optimistic reads; only its optimistic read and
+     * validate are used, and it is write locked and released at once to
+     * bump it whenever the frame's page or contents change.
+     */
+    protected final StampedLock version;
+
 	 /**
-	   * Constructs a FrameDesc by initializing member data. 
+	   * Constructs a FrameDesc by initializing member data.
+	   *
+	   * @param index position of the frame in the buffer pool
 	   */
-    public FrameDesc () {
+    public FrameDesc (int index) {
+    	this.index = index;
     	isDirty = false;
-    	pinCount = 0;
+    	pinCount = new AtomicInteger(0);
     	isValid = false;
     	refBit = false;
     	pageno = null;
+    	isLoading = false;
+    	isRetired = false;
+    	version = new StampedLock();
     }
 }
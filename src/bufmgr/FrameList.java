@@ -0,0 +1,127 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * A doubly linked list of frame numbers, kept in arrays indexed by frame so
+ * that moving a frame around never allocates. A frame is in at most one list
+ * at a time; the first frame is the least recently added. Replacement
+ * policies use these lists for their recency queues and are responsible for
+ * latching them.
+ */
+class FrameList {
+
+	/** Marks the end of a list, or a frame that is not in any list. */
+	static final int NONE = -1;
+
+	// Links between the frames in the list
+	private final int[] prev;
+	private final int[] next;
+	private final boolean[] member;
+
+	private int head;
+	private int tail;
+	private int size;
+
+	/**
+	 * Constructs an empty list for a pool of the given size.
+	 */
+	FrameList(int numframes) {
+		prev = new int[numframes];
+		next = new int[numframes];
+		member = new boolean[numframes];
+		Arrays.fill(prev, NONE);
+		Arrays.fill(next, NONE);
+		head = NONE;
+		tail = NONE;
+		size = 0;
+	}
+
+	/**
+	 * Gets the number of frames in the list.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * True if the frame is in this list.
+	 */
+	boolean contains(int frame) {
+		return member[frame];
+	}
+
+	/**
+	 * Gets the first (oldest) frame, or NONE if the list is empty.
+	 */
+	int first() {
+		return head;
+	}
+
+	/**
+	 * Gets the frame after the given one, or NONE at the end of the list.
+	 */
+	int next(int frame) {
+		return next[frame];
+	}
+
+	/**
+	 * Appends the frame to the end of the list, moving it if it is already
+	 * in the list.
+	 */
+	void addLast(int frame) {
+		remove(frame);
+		prev[frame] = tail;
+		next[frame] = NONE;
+		if (tail == NONE) {
+			head = frame;
+		} else {
+			next[tail] = frame;
+		}
+		tail = frame;
+		member[frame] = true;
+		size++;
+	}
+
+	/**
+	 * Prepends the frame to the front of the list, moving it if it is
+	 * already in the list.
+	 */
+	void addFirst(int frame) {
+		remove(frame);
+		prev[frame] = NONE;
+		next[frame] = head;
+		if (head == NONE) {
+			tail = frame;
+		} else {
+			prev[head] = frame;
+		}
+		head = frame;
+		member[frame] = true;
+		size++;
+	}
+
+	/**
+	 * Removes the frame from the list, if it is in it.
+	 */
+	void remove(int frame) {
+		if (!member[frame]) {
+			return;
+		}
+		if (prev[frame] == NONE) {
+			head = next[frame];
+		} else {
+			next[prev[frame]] = next[frame];
+		}
+		if (next[frame] == NONE) {
+			tail = prev[frame];
+		} else {
+			prev[next[frame]] = prev[frame];
+		}
+		prev[frame] = NONE;
+		next[frame] = NONE;
+		member[frame] = false;
+		size--;
+	}
+
+} // class FrameList
@@ -0,0 +1,93 @@
+package bufmgr;
+
+/**
+ * Generalized clock replacement policy. Each frame carries a usage counter
+ * instead of a single reference bit: every pin of a resident page bumps the
+ * counter (up to a cap), and the sweeping hand decrements counters until it
+ * finds an unpinned frame whose counter has run out. Frequently used pages
+ * therefore survive several sweeps.
+ */
+public class GClock extends Replacer {
+
+	/** Highest value a usage counter can reach. */
+	protected static final int MAX_USAGE = 5;
+
+	// Usage counter of each frame; bumped without a latch, so the counts
+	// are approximate under concurrency, which is all a clock needs.
+	private final int[] usage;
+
+	private int counter;
+
+	public GClock(FrameDesc[] frametab) {
+		super(frametab);
+		usage = new int[frametab.length];
+		counter = 0;
+	}
+
+	@Override
+	public void newPage(FrameDesc fdesc) {
+		usage[slot(fdesc)] = 1;
+	}
+
+	@Override
+	public void freePage(FrameDesc fdesc) {
+		usage[slot(fdesc)] = 0;
+	}
+
+	@Override
+	public void pinPage(FrameDesc fdesc) {
+		if (usage[slot(fdesc)] < MAX_USAGE) {
+			usage[slot(fdesc)]++;
+		}
+	}
+
+	@Override
+	public void unpinPage(FrameDesc fdesc) {
+		// The reference was counted when the page was pinned
+	}
+
+	@Override
+	public void coldPage(FrameDesc fdesc) {
+		usage[slot(fdesc)] = 0;
+	}
+
+	@Override
+	public void keepPage(FrameDesc fdesc) {
+		// As many chances as the hottest pages get
+		usage[slot(fdesc)] = MAX_USAGE;
+	}
+
+	@Override
+	public long[] heat() {
+		long[] heat = new long[frametab.length];
+		for (int f = 0; f < heat.length; f++) {
+			heat[f] = usage[f];
+		}
+		return heat;
+	}
+
+	@Override
+	public int getHand() {
+		return counter;
+	}
+
+	@Override
+	public synchronized int pickVictim() {
+		// Enough sweeps to run any counter down to zero
+		for (int i = 0; i < frametab.length * (MAX_USAGE + 2); i++) {
+			int current = counter;
+			counter = (counter + 1) % frametab.length;
+
+			if (isUnpinned(current)) {
+				if ((!frametab[current].isValid) || (usage[current] <= 0)) {
+					return current;
+				}
+				usage[current]--;
+			}
+		}
+
+		// Could not find a frame, return error
+		return -1;
+	}
+
+} // public class GClock extends Replacer
@@ -0,0 +1,106 @@
+package bufmgr;
+
+/**
+ * Heap usage monitor for the buffer pool. Every round it compares the JVM's
+ * heap usage against two thresholds: above the high one the pool gives up
+ * frames so that a spike elsewhere in the process does not run out of
+ * memory, and below the low one it takes them back. Between the two it
+ * leaves the pool alone, so the size does not flap.
+ */
+class HeapMonitor extends Thread {
+
+	// The buffer manager being resized
+	private final BufMgr bufmgr;
+
+	// Delay between rounds, in milliseconds
+	private final long delay;
+
+	// Bounds on the pool size
+	private final int minFrames;
+	private final int maxFrames;
+
+	// Fractions of the maximum heap that trigger growing and shrinking
+	private final double lowWater;
+	private final double highWater;
+
+	// Cleared to ask the thread to stop
+	private volatile boolean running;
+
+	/**
+	 * Constructs the monitor; see BufMgr.startHeapMonitor().
+	 */
+	HeapMonitor(BufMgr bufmgr, long delay, int minFrames, int maxFrames,
+			double lowWater, double highWater) {
+		super("Minibase heap monitor");
+		setDaemon(true);
+		this.bufmgr = bufmgr;
+		this.delay = delay;
+		this.minFrames = Math.min(minFrames, maxFrames);
+		this.maxFrames = maxFrames;
+		this.lowWater = lowWater;
+		this.highWater = highWater;
+		this.running = true;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			check(heapUsage());
+			synchronized (this) {
+				// Not interrupted: that would close the database file if it
+				// landed in the middle of writing back a retired frame
+				if (running) {
+					try {
+						wait(delay);
+					} catch (InterruptedException exc) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resizes the pool for the given heap usage, if it is outside the
+	 * thresholds.
+	 */
+	void check(double usage) {
+		int frames = bufmgr.getNumFrames();
+		if ((usage > highWater) && (frames > minFrames)) {
+			bufmgr.resize(Math.max(minFrames, frames - Math.max(1, frames / 4)));
+		} else if ((usage < lowWater) && (frames < maxFrames)) {
+			bufmgr.resize(Math.min(maxFrames, frames + Math.max(1, frames / 8)));
+		}
+	}
+
+	/**
+	 * Gets the fraction of the maximum heap currently in use.
+	 */
+	static double heapUsage() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return (double) used / runtime.maxMemory();
+	}
+
+	/**
+	 * Stops the monitor and waits for its current round to finish.
+	 */
+	void shutdown() {
+		synchronized (this) {
+			running = false;
+			notifyAll();
+		}
+		boolean interrupted = false;
+		while (isAlive()) {
+			try {
+				join();
+			} catch (InterruptedException exc) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+} // class HeapMonitor extends Thread
@@ -0,0 +1,115 @@
+package bufmgr;
+
+/**
+ * Least recently used replacement policy. Frames are queued in the order
+ * their pages were last released, and the victim is the unpinned frame that
+ * has waited the longest. Free frames are kept at the front of the queue so
+ * they are used before any page is evicted.
+ */
+public class LRU extends Replacer {
+
+	// Frames in order of last use, least recent first
+	private final FrameList queue;
+
+	// Frames unpinned with a keep hint, which go round the queue twice
+	private final boolean[] kept;
+
+	public LRU(FrameDesc[] frametab) {
+		super(frametab);
+		queue = new FrameList(frametab.length);
+		kept = new boolean[frametab.length];
+		for (int i = 0; i < frametab.length; i++) {
+			queue.addLast(i);
+		}
+	}
+
+	@Override
+	public synchronized void newPage(FrameDesc fdesc) {
+		queue.addLast(slot(fdesc));
+		kept[slot(fdesc)] = false;
+	}
+
+	@Override
+	public synchronized void freePage(FrameDesc fdesc) {
+		queue.addFirst(slot(fdesc));
+		kept[slot(fdesc)] = false;
+	}
+
+	@Override
+	public void pinPage(FrameDesc fdesc) {
+		// Recency is recorded when the last pin goes away
+	}
+
+	@Override
+	public synchronized void unpinPage(FrameDesc fdesc) {
+		queue.addLast(slot(fdesc));
+		kept[slot(fdesc)] = false;
+	}
+
+	@Override
+	public synchronized void coldPage(FrameDesc fdesc) {
+		// Next in line for replacement
+		queue.addFirst(slot(fdesc));
+		kept[slot(fdesc)] = false;
+	}
+
+	@Override
+	public synchronized void keepPage(FrameDesc fdesc) {
+		queue.addLast(slot(fdesc));
+		kept[slot(fdesc)] = true;
+	}
+
+	@Override
+	public synchronized long[] heat() {
+		// Queue order, with kept pages after all the others
+		long[] heat = new long[frametab.length];
+		rank(queue, heat, 0);
+		for (int f = 0; f < heat.length; f++) {
+			if (kept[f]) {
+				heat[f] += heat.length;
+			}
+		}
+		return heat;
+	}
+
+	@Override
+	public synchronized int pickVictim() {
+		for (int f = queue.first(); f != FrameList.NONE;) {
+			int next = queue.next(f);
+			if (isUnpinned(f)) {
+				if (!kept[f]) {
+					return f;
+				}
+				// Give a kept page one more trip down the queue
+				kept[f] = false;
+				queue.addLast(f);
+				if (next == FrameList.NONE) {
+					next = f;
+				}
+			}
+			f = next;
+		}
+
+		// Could not find a frame, return error
+		return -1;
+	}
+
+	@Override
+	public synchronized int pickVictims(int[] victims) {
+		// Least recently used first, kept pages only if there is no other
+		int count = 0;
+		for (int f = queue.first(); (f != FrameList.NONE) && (count < victims.length); f = queue.next(f)) {
+			if ((!kept[f]) && (isUnpinned(f))) {
+				victims[count++] = f;
+			}
+		}
+		return addUnpinned(queue, victims, count);
+	}
+
+	@Override
+	public int victimOrder(int[] order) {
+		// Picking the victims only reads the lists
+		return pickVictims(order);
+	}
+
+} // public class LRU extends Replacer
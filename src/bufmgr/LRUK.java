@@ -0,0 +1,155 @@
+package bufmgr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-K replacement policy with K = 2. The victim is the unpinned frame whose
+ * second most recent reference is the oldest; pages referenced only once
+ * count as infinitely old and go first, in LRU order. This keeps pages that
+ * are touched once by a scan from pushing out pages with a history of reuse.
+ * The last reference time of recently evicted pages is retained, so a page
+ * that comes back soon after eviction keeps its history.
+ */
+public class LRUK extends Replacer {
+
+	// Logical time of the last and the second to last reference per frame;
+	// zero means no such reference
+	private final long[] last;
+	private final long[] previous;
+
+	// Last reference time of recently evicted pages, by page number
+	private final Map<Integer, Long> retained;
+
+	// Page number each frame held when we last heard about it
+	private final int[] resident;
+
+	private long time;
+
+	public LRUK(FrameDesc[] frametab) {
+		super(frametab);
+		final int limit = frametab.length;
+		last = new long[limit];
+		previous = new long[limit];
+		resident = new int[limit];
+		for (int i = 0; i < limit; i++) {
+			resident[i] = INVALID_PAGEID;
+		}
+		retained = new LinkedHashMap<Integer, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+				return size() > limit;
+			}
+		};
+		time = 0;
+	}
+
+	@Override
+	public synchronized void newPage(FrameDesc fdesc) {
+		int f = slot(fdesc);
+
+		// Remember the history of the page being replaced
+		if ((resident[f] != INVALID_PAGEID) && (last[f] != 0)) {
+			retained.put(resident[f], last[f]);
+		}
+
+		resident[f] = fdesc.pageno.pid;
+		Long history = retained.remove(resident[f]);
+		previous[f] = (history == null) ? 0 : history;
+		last[f] = ++time;
+	}
+
+	@Override
+	public synchronized void freePage(FrameDesc fdesc) {
+		int f = slot(fdesc);
+		resident[f] = INVALID_PAGEID;
+		last[f] = 0;
+		previous[f] = 0;
+	}
+
+	@Override
+	public synchronized void pinPage(FrameDesc fdesc) {
+		int f = slot(fdesc);
+		previous[f] = last[f];
+		last[f] = ++time;
+	}
+
+	@Override
+	public void unpinPage(FrameDesc fdesc) {
+		// The reference was recorded when the page was pinned
+	}
+
+	@Override
+	public synchronized void coldPage(FrameDesc fdesc) {
+		// Forget any history so the page goes before reused ones
+		int f = slot(fdesc);
+		previous[f] = 0;
+		last[f] = Math.min(last[f], 1);
+	}
+
+	@Override
+	public synchronized void keepPage(FrameDesc fdesc) {
+		// Look as if referenced twice just now, the best history there is
+		int f = slot(fdesc);
+		previous[f] = last[f];
+	}
+
+	@Override
+	public synchronized long[] heat() {
+		// Pages seen twice by their second last use, then the others by
+		// their only one
+		long[] heat = new long[frametab.length];
+		for (int f = 0; f < heat.length; f++) {
+			heat[f] = (previous[f] != 0) ? time + previous[f] : last[f];
+		}
+		return heat;
+	}
+
+	@Override
+	public synchronized int pickVictim() {
+		int victim = -1;
+		for (int f = 0; f < frametab.length; f++) {
+			if (!isUnpinned(f)) {
+				continue;
+			}
+			if (!frametab[f].isValid) {
+				// Free frames are always the best choice
+				return f;
+			}
+			if ((victim == -1) || (previous[f] < previous[victim])
+					|| ((previous[f] == previous[victim]) && (last[f] < last[victim]))) {
+				victim = f;
+			}
+		}
+		return victim;
+	}
+
+	@Override
+	public synchronized int pickVictims(int[] victims) {
+		// Repeat the selection, leaving out frames already chosen
+		int count = 0;
+		while (count < victims.length) {
+			int victim = -1;
+			for (int f = 0; f < frametab.length; f++) {
+				if ((!isUnpinned(f)) || (contains(victims, count, f))) {
+					continue;
+				}
+				if (!frametab[f].isValid) {
+					victim = f;
+					break;
+				}
+				if ((victim == -1) || (previous[f] < previous[victim])
+						|| ((previous[f] == previous[victim]) && (last[f] < last[victim]))) {
+					victim = f;
+				}
+			}
+			if (victim == -1) {
+				break;
+			}
+			victims[count++] = victim;
+		}
+		return count;
+	}
+
+} // public class LRUK extends Replacer
@@ -1,85 +1,305 @@
 package bufmgr;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * <h3>Page Frame Mapper</h3>
  * This class maintains the relationships between pages and frames.
- * It has two maps to facilitate quick lookups in either direction.  
+ * It keeps a map in each direction to facilitate quick lookups.
  * It provides the following services:
  * <ol>
- * <li>Adding pages and frames to the hash maps
+ * <li>Adding pages and frames to the maps
  * <li>Getting a frame given a page
  * <li>Getting a page given a frame
  * <li>Removing a page/frame relationship
  * </ol>
  * This class is utilized by the BufMgr for quick look ups.
+ * <br><br>
+ * The page to frame map is an open-addressing table of primitive ints, split
+ * into stripes by page number. Each stripe is guarded by its own latch for
+ * updates, while look ups read the table without any latch at all. A used
+ * slot never becomes empty again, and rebuilds swap in a whole new table, so
+ * a look up never misses a mapping that stays put (see rebuild()). Callers
+ * that need to combine a look up with another action (e.g. pinning the frame)
+ * synchronize on the latch returned by getLatch(); the latches are reentrant,
+ * so the individual map operations can still be called while holding it. The
+ * frame to page direction is a plain array indexed by frame.
  */
 public class PageFrameMap {
-	
-	//Create HashMap variables to hold the page to frame relationships
-	HashMap<Integer, Integer> pageToFrame;
-	HashMap<Integer, Integer> frameToPage;
+
+	/** Default number of latch stripes in the page to frame map. */
+	public static final int DEFAULT_STRIPES = 64;
+
+	/** Value returned by look ups that find no mapping. */
+	public static final int NO_MAPPING = -1;
+
+	/** Key of a slot that has never been used. */
+	static final int EMPTY = -1;
+
+	/** Key of a slot whose mapping was removed. */
+	static final int DELETED = -2;
+
+	//Create the stripes that hold the page to frame relationships
+	Stripe[] stripes;
+	int stripeMask;
+
+	//Create an array to hold the frame to page relationships; replaced as
+	//a whole when the pool grows
+	volatile int[] frameToPage;
+
+	/**
+	 * One independently latched piece of the page to frame map. Each slot
+	 * packs a page number (high word) and frame number (low word) so that a
+	 * reader always sees a consistent pair.
+	 */
+	static class Stripe {
+
+		// Current table; replaced as a whole when it is rebuilt
+		volatile AtomicLongArray slots;
+
+		// Number of live and deleted slots, guarded by the stripe latch
+		int used;
+		int deleted;
+
+		Stripe(int capacity) {
+			slots = newTable(capacity);
+		}
+	}
+
+	 /**
+	   * Constructs a PageFrameMap sized for the given number of frames, with
+	   * the default number of stripes.
+	   *
+	   * @param numframes number of frames in the buffer pool
+	   */
+	public PageFrameMap (int numframes) {
+		this(numframes, DEFAULT_STRIPES);
+	}
 
 	 /**
-	   * Constructs a PageFrameMap by initializing member data. 
+	   * Constructs a PageFrameMap by initializing member data.
+	   *
+	   * @param numframes number of frames in the buffer pool
+	   * @param numStripes number of latch stripes, rounded up to a power of two
 	   */
-	public PageFrameMap () {
-		pageToFrame = new HashMap<>();
-		frameToPage = new HashMap<>();
+	public PageFrameMap (int numframes, int numStripes) {
+		int size = powerOfTwo(Math.max(1, Math.min(numStripes, numframes)));
+		int perStripe = (numframes + size - 1) / size;
+		stripes = new Stripe[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new Stripe(powerOfTwo(Math.max(4, perStripe * 2)));
+		}
+		stripeMask = size - 1;
+		frameToPage = new int[numframes];
+		Arrays.fill(frameToPage, NO_MAPPING);
 	}
-	
+
 	 /**
-	   * Adds a given frame/page relationship to the maps.
-	   * 
+	   * Gets the latch guarding the stripe that holds the given page.
+	   *
+	   * @param page page whose latch is wanted
+	   * @return latch object to synchronize on
+	   */
+	public Object getLatch(int page) {
+		return stripes[page & stripeMask];
+	}
+
+	 /**
+	   * Adds a given frame/page relationship to the maps. The frame must not
+	   * be mapped to another page; use removeFromMap() first.
+	   *
 	   * @param frame frame to be added
-	   * @param page page to be added 
+	   * @param page page to be added
 	   */
 	public void addToMap(int frame, int page) {
-		Integer oldPage = frameToPage.get(frame);
-		if (oldPage != null)
-		{
-			// This frame was mapped to a previous page
-			// so remove old entries from both hashmaps. 
-			pageToFrame.remove(oldPage);
-			frameToPage.remove(frame);
-		}
+		Stripe stripe = stripes[page & stripeMask];
+		synchronized (stripe) {
+			AtomicLongArray slots = stripe.slots;
+			int mask = slots.length() - 1;
+			int free = -1;
+			boolean replace = false;
+			for (int i = slotFor(page, mask), n = 0; n <= mask; i = (i + 1) & mask, n++) {
+				int key = keyOf(slots.get(i));
+				if (key == page) {
+					// Replace an existing mapping in place
+					free = i;
+					replace = true;
+					break;
+				}
+				if (key == DELETED && free == -1) {
+					free = i;
+				} else if (key == EMPTY) {
+					if (free == -1) {
+						free = i;
+					}
+					break;
+				}
+			}
+			if (free == -1) {
+				// Every slot is taken; rebuild and try again
+				rebuild(stripe);
+				addToMap(frame, page);
+				return;
+			}
+			if (!replace) {
+				if (keyOf(slots.get(free)) == DELETED) {
+					stripe.deleted--;
+				}
+				stripe.used++;
+			}
+			slots.set(free, pack(page, frame));
+			frameToPage[frame] = page;
 
-		// Update (add to) both hashmaps
-		pageToFrame.put(page, frame);
-		frameToPage.put(frame, page);
+			// Keep probe sequences short
+			if (stripe.used + stripe.deleted > (slots.length() * 3) / 4) {
+				rebuild(stripe);
+			}
+		}
 	}
-	
+
 	 /**
-	   * Gets the frame for a given page
-	   * 
-	   * @param page page to be used in the search 
-	   * @return frame frame associated with the input page
+	   * Gets the frame for a given page, without taking any latch.
+	   *
+	   * @param page page to be used in the search
+	   * @return frame associated with the input page, or NO_MAPPING
 	   */
-	public Integer getFrameFromPage (int page) {
-		return pageToFrame.get(page);
+	public int getFrameFromPage (int page) {
+		AtomicLongArray slots = stripes[page & stripeMask].slots;
+		int mask = slots.length() - 1;
+		for (int i = slotFor(page, mask), n = 0; n <= mask; i = (i + 1) & mask, n++) {
+			long slot = slots.get(i);
+			int key = keyOf(slot);
+			if (key == page) {
+				return (int) slot;
+			}
+			if (key == EMPTY) {
+				break;
+			}
+		}
+		return NO_MAPPING;
 	}
-	
+
 	 /**
 	   * Gets the page for a given frame
-	   * 
-	   * @param frame frame to be used in the search 
-	   * @return page page associated with the input frame
+	   *
+	   * @param frame frame to be used in the search
+	   * @return page associated with the input frame, or NO_MAPPING
 	   */
-	public Integer getPageFromFrame (int frame) {
-		return frameToPage.get(frame);
+	public int getPageFromFrame (int frame) {
+		return frameToPage[frame];
 	}
-	
+
 	 /**
 	   * Removes a given frame/page relationship from the maps.
-	   * 
+	   *
 	   * @param frame frame to be removed
-	   * @param page page to be removed 
+	   * @param page page to be removed
 	   */
 	public void removeFromMap(int frame, int page) {
-		// This frame was mapped to a previous page
-		// so remove old entries from both hashmaps. 
-		pageToFrame.remove(page);
-		frameToPage.remove(frame);
+		Stripe stripe = stripes[page & stripeMask];
+		synchronized (stripe) {
+			AtomicLongArray slots = stripe.slots;
+			int mask = slots.length() - 1;
+			for (int i = slotFor(page, mask), n = 0; n <= mask; i = (i + 1) & mask, n++) {
+				int key = keyOf(slots.get(i));
+				if (key == page) {
+					// Leave a marker so later probes keep going
+					slots.set(i, pack(DELETED, NO_MAPPING));
+					stripe.used--;
+					stripe.deleted++;
+					break;
+				}
+				if (key == EMPTY) {
+					break;
+				}
+			}
+			if (frameToPage[frame] == page) {
+				frameToPage[frame] = NO_MAPPING;
+			}
+		}
+	}
+
+	 /**
+	   * Makes room for the given number of frames. Every stripe latch is
+	   * held while the frame to page array is copied, so no update is lost.
+	   *
+	   * @param numframes new number of frames in the buffer pool
+	   */
+	public void grow(int numframes) {
+		growLatched(0, numframes);
+	}
+
+	private void growLatched(int stripe, int numframes) {
+		if (stripe < stripes.length) {
+			synchronized (stripes[stripe]) {
+				growLatched(stripe + 1, numframes);
+			}
+			return;
+		}
+		int[] grown = Arrays.copyOf(frameToPage, numframes);
+		Arrays.fill(grown, frameToPage.length, numframes, NO_MAPPING);
+		frameToPage = grown;
+	}
+
+	/**
+	 * Rebuilds a stripe's table without deleted slots, doubling it if it is
+	 * more than half full. The new table is filled before it is published and
+	 * the old one is never written again, so a reader still probing the old
+	 * table sees the mappings as they were just before the rebuild. A look up
+	 * therefore finds every mapping that exists for its whole duration; it can
+	 * only miss a mapping added, or find one removed, while it runs.
+	 */
+	private static void rebuild(Stripe stripe) {
+		AtomicLongArray old = stripe.slots;
+		int capacity = old.length();
+		if (stripe.used * 2 > capacity) {
+			capacity *= 2;
+		}
+		AtomicLongArray slots = newTable(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < old.length(); j++) {
+			long slot = old.get(j);
+			int key = keyOf(slot);
+			if (key >= 0) {
+				int i = slotFor(key, mask);
+				while (keyOf(slots.get(i)) != EMPTY) {
+					i = (i + 1) & mask;
+				}
+				slots.set(i, slot);
+			}
+		}
+		stripe.deleted = 0;
+		stripe.slots = slots;
+	}
+
+	private static AtomicLongArray newTable(int capacity) {
+		AtomicLongArray slots = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			slots.set(i, pack(EMPTY, NO_MAPPING));
+		}
+		return slots;
+	}
+
+	private static int slotFor(int page, int mask) {
+		// Fibonacci hashing, keeping as many of the product's top bits as
+		// the table needs; the page's low bits already picked the stripe
+		return ((page * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(mask)) & mask;
+	}
+
+	private static long pack(int page, int frame) {
+		return ((long) page << 32) | (frame & 0xFFFFFFFFL);
+	}
+
+	private static int keyOf(long slot) {
+		return (int) (slot >> 32);
+	}
+
+	private static int powerOfTwo(int n) {
+		int size = 1;
+		while (size < n) {
+			size <<= 1;
+		}
+		return size;
 	}
 }
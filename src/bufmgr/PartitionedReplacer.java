@@ -0,0 +1,221 @@
+package bufmgr;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replacement policy that splits the pool into partitions of consecutive
+ * frames, each with its own instance of the underlying policy and so its own
+ * latch and clock hand. A miss looks for a victim in the partition its page
+ * hashes to, and only steals from the others when every frame there is
+ * pinned; concurrent misses on different pages then rarely contend, and each
+ * sweep only covers a fraction of the pool. Nothing is latched here, so the
+ * partitions are only ever locked one at a time.
+ * <p>
+ * Only the replacement policy is partitioned. The buffer manager's frame
+ * table and page table are still shared by all partitions; a page can be
+ * mapped into any frame, and lookups, pins and the page table's own latches
+ * work exactly as in an unpartitioned pool. Partitioning therefore cuts
+ * contention for victim searches, not for the page table.
+ * <p>
+ * Frames retired from the end of the pool by a shrink are left out of the
+ * partitions, so that no search sweeps them; the buffer manager builds new
+ * partitions whenever the pool is resized.
+ */
+class PartitionedReplacer extends Replacer {
+
+	// One replacer per partition, in frame order
+	private final Replacer[] parts;
+
+	// Frames per partition; the last one may have fewer
+	private final int size;
+
+	// Number of frames in the partitions, and the replacer for the retired
+	// frames after them, which is never searched (null if there are none)
+	private final int live;
+	private final Replacer spare;
+
+	// Where victim searches for unknown pages start
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Constructs the given policy over each of count partitions of the
+	 * frames.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the policy is unknown
+	 */
+	PartitionedReplacer(String policy, FrameDesc[] frametab, int count) {
+		super(frametab);
+		int live = frametab.length;
+		while ((live > 1) && (frametab[live - 1].isRetired)) {
+			live--;
+		}
+		this.live = live;
+		count = Math.max(1, Math.min(count, live));
+		size = (live + count - 1) / count;
+		parts = new Replacer[(live + size - 1) / size];
+		for (int p = 0; p < parts.length; p++) {
+			parts[p] = Replacer.forName(policy, Arrays.copyOfRange(frametab,
+					p * size, Math.min(live, (p + 1) * size)));
+		}
+		spare = (live < frametab.length)
+				? Replacer.forName(policy, Arrays.copyOfRange(frametab, live, frametab.length)) : null;
+	}
+
+	/**
+	 * Gets the number of partitions.
+	 */
+	int getNumPartitions() {
+		return parts.length;
+	}
+
+	/**
+	 * Gets the partition the given page looks for victims in first.
+	 */
+	int partitionFor(int pid) {
+		// Fibonacci hashing, as in the page table
+		return (int) (((pid * 0x9E3779B9L) & 0xFFFFFFFFL) % parts.length);
+	}
+
+	private Replacer partOf(FrameDesc fdesc) {
+		int f = slot(fdesc);
+		return (f < live) ? parts[f / size] : spare;
+	}
+
+	@Override
+	public void newPage(FrameDesc fdesc) {
+		partOf(fdesc).newPage(fdesc);
+	}
+
+	@Override
+	public void freePage(FrameDesc fdesc) {
+		partOf(fdesc).freePage(fdesc);
+	}
+
+	@Override
+	public void pinPage(FrameDesc fdesc) {
+		partOf(fdesc).pinPage(fdesc);
+	}
+
+	@Override
+	public void unpinPage(FrameDesc fdesc) {
+		partOf(fdesc).unpinPage(fdesc);
+	}
+
+	@Override
+	public void coldPage(FrameDesc fdesc) {
+		partOf(fdesc).coldPage(fdesc);
+	}
+
+	@Override
+	public void keepPage(FrameDesc fdesc) {
+		partOf(fdesc).keepPage(fdesc);
+	}
+
+	@Override
+	public int pickVictim() {
+		return pickVictim(INVALID_PAGEID);
+	}
+
+	/**
+	 * Looks for a victim in the page's own partition, then in the others in
+	 * turn. Pages not known yet start at the next partition round robin.
+	 */
+	@Override
+	public int pickVictim(int pid) {
+		int start = (pid < 0) ? nextPartition() : partitionFor(pid);
+		for (int i = 0; i < parts.length; i++) {
+			int p = (start + i) % parts.length;
+			int victim = parts[p].searchVictim(INVALID_PAGEID);
+			if (victim != -1) {
+				return p * size + victim;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Fills the batch from one partition after another, starting round
+	 * robin.
+	 */
+	@Override
+	public int pickVictims(int[] victims) {
+		int start = nextPartition();
+		int count = 0;
+		for (int i = 0; (i < parts.length) && (count < victims.length); i++) {
+			int p = (start + i) % parts.length;
+			int[] picked = new int[victims.length - count];
+			int n = parts[p].pickVictims(picked);
+			for (int j = 0; j < n; j++) {
+				victims[count++] = p * size + picked[j];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Interleaves the partitions' orders, since each partition picks its
+	 * victims independently of the others.
+	 */
+	@Override
+	public int victimOrder(int[] order) {
+		int[][] orders = new int[parts.length][];
+		int[] counts = new int[parts.length];
+		for (int p = 0; p < parts.length; p++) {
+			orders[p] = new int[parts[p].frametab.length];
+			counts[p] = parts[p].victimOrder(orders[p]);
+		}
+		int count = 0;
+		for (int rank = 0; count < order.length; rank++) {
+			boolean more = false;
+			for (int p = 0; (p < parts.length) && (count < order.length); p++) {
+				if (rank < counts[p]) {
+					order[count++] = p * size + orders[p][rank];
+					more = true;
+				}
+			}
+			if (!more) {
+				break;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public long[] heat() {
+		long[] heat = new long[frametab.length];
+		for (int p = 0; p < parts.length; p++) {
+			long[] part = parts[p].heat();
+			System.arraycopy(part, 0, heat, p * size, part.length);
+		}
+		if (spare != null) {
+			long[] part = spare.heat();
+			System.arraycopy(part, 0, heat, live, part.length);
+		}
+		return heat;
+	}
+
+	/**
+	 * Searches like pickVictim(int); each partition counts its own steps, so
+	 * nothing is latched here.
+	 */
+	@Override
+	public int searchVictim(int pid) {
+		return pickVictim(pid);
+	}
+
+	@Override
+	public long getSweepSteps() {
+		long steps = super.getSweepSteps();
+		for (Replacer part : parts) {
+			steps += part.getSweepSteps();
+		}
+		return steps;
+	}
+
+	private int nextPartition() {
+		return Math.floorMod(next.getAndIncrement(), parts.length);
+	}
+
+} // class PartitionedReplacer extends Replacer
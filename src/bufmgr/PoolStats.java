@@ -0,0 +1,60 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running counters for a buffer pool. Every counter is a LongAdder, so
+ * threads updating them on different frames do not contend; reading them
+ * (see BufMgr.stats()) is the only slow part.
+ */
+class PoolStats {
+
+	/** Number of buckets in the miss latency histogram. */
+	static final int LATENCY_BUCKETS = 32;
+
+	// Pins that found their page resident, or had to bring it in
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+
+	// Pages dropped to make room, and how many of those had to be written
+	final LongAdder evictions = new LongAdder();
+	final LongAdder dirtyEvictions = new LongAdder();
+
+	// Pages written by flushPage, flushAllPages or the background writer
+	final LongAdder flushes = new LongAdder();
+
+	// Misses served from the compressed second-level cache
+	final LongAdder compressedHits = new LongAdder();
+
+	// Calls to the replacer for a victim
+	final LongAdder victimSearches = new LongAdder();
+
+	// Pins that had to wait for another thread's load of the page
+	final LongAdder loadWaits = new LongAdder();
+	final LongAdder loadWaitNanos = new LongAdder();
+
+	// Miss service time: total, and counts by power of two microseconds
+	final LongAdder missNanos = new LongAdder();
+	final AtomicLongArray missLatency = new AtomicLongArray(LATENCY_BUCKETS);
+
+	/**
+	 * Records how long a miss took to service, from looking for a frame to
+	 * having the page loaded.
+	 */
+	void recordMiss(long nanos) {
+		misses.increment();
+		missNanos.add(nanos);
+		missLatency.incrementAndGet(bucketFor(nanos / 1000));
+	}
+
+	/**
+	 * Gets the histogram bucket for a latency: bucket 0 counts latencies
+	 * under 1us, and bucket i those from 2^(i-1) up to 2^i us.
+	 */
+	static int bucketFor(long micros) {
+		int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, micros));
+		return Math.min(bucket, LATENCY_BUCKETS - 1);
+	}
+
+} // class PoolStats
@@ -2,43 +2,131 @@ package bufmgr;
 
 import global.GlobalConst;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
- * Base class for buffer pool replacement policies.
+ * Base class for buffer pool replacement policies. The buffer manager calls
+ * the notification methods as frames change state, and pickVictim() whenever
+ * it needs a frame for a page that is not resident. Implementations must be
+ * safe to call from several threads; pickVictim() may return a frame that is
+ * pinned again before the buffer manager claims it, in which case it simply
+ * asks again.
  */
 abstract class Replacer implements GlobalConst {
 
-	/** Reference back to the buffer manager's frame table. */
+	/** The frames this replacer chooses from. */
 	protected FrameDesc[] frametab;
 
+	/** Pool position of frametab[0]; frame numbers here count from it. */
+	protected final int base;
+
+	/** Number of frames examined by searchVictim(), for the sweep length. */
+	private final LongAdder sweepSteps = new LongAdder();
+
+	// Frames examined so far by the current search; only touched with the
+	// replacer locked
+	private int steps;
+
 	// --------------------------------------------------------------------------
 
 	/**
-	 * Constructs the replacer, given the buffer manager.
+	 * Constructs the replacer over a run of consecutive frames of the pool,
+	 * usually the whole frame table.
 	 */
-	protected Replacer(BufMgr bufmgr) {
-		this.frametab = bufmgr.frametab;
+	protected Replacer(FrameDesc[] frametab) {
+		this.frametab = frametab;
+		this.base = (frametab.length > 0) ? frametab[0].index : 0;
 	}
 
 	/**
-	 * Notifies the replacer of a new page.
+	 * Constructs the replacement policy with the given name, as passed to
+	 * Minibase.init(). Names are matched ignoring case; null selects Clock.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the policy is unknown
+	 */
+	public static Replacer forName(String policy, BufMgr bufmgr) {
+		return forName(policy, bufmgr.frametab);
+	}
+
+	/**
+	 * Constructs the replacement policy with the given name over the given
+	 * frames; see forName(String, BufMgr).
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the policy is unknown
+	 */
+	public static Replacer forName(String policy, FrameDesc[] frametab) {
+
+		if (policy == null) {
+			return new Clock(frametab);
+		}
+		switch (policy.toUpperCase()) {
+		case "CLOCK":
+			return new Clock(frametab);
+		case "GCLOCK":
+			return new GClock(frametab);
+		case "LRU":
+			return new LRU(frametab);
+		case "LRU-K":
+		case "LRUK":
+		case "LRU-2":
+			return new LRUK(frametab);
+		case "2Q":
+			return new TwoQueue(frametab);
+		case "ARC":
+			return new ARC(frametab);
+		default:
+			throw new IllegalArgumentException("Unknown replacement policy: "
+					+ policy);
+		}
+
+	} // public static Replacer forName(String policy, FrameDesc[] frametab)
+
+	/**
+	 * Notifies the replacer of a new page, i.e. a page that was just mapped
+	 * into the frame. The frame is pinned when this is called.
 	 */
 	public abstract void newPage(FrameDesc fdesc);
 
 	/**
-	 * Notifies the replacer of a free page.
+	 * Notifies the replacer of a free page, i.e. the frame no longer holds a
+	 * valid page.
 	 */
 	public abstract void freePage(FrameDesc fdesc);
 
 	/**
-	 * Notifies the replacer of a pined page.
+	 * Notifies the replacer of a pined page, i.e. another pin of a page that
+	 * was already resident.
 	 */
 	public abstract void pinPage(FrameDesc fdesc);
 
 	/**
-	 * Notifies the replacer of an unpinned page.
+	 * Notifies the replacer of an unpinned page, i.e. its last pin was
+	 * released.
 	 */
 	public abstract void unpinPage(FrameDesc fdesc);
 
+	/**
+	 * Notifies the replacer that a page was just released and is not
+	 * expected to be used again soon, e.g. by a sequential scan. The default
+	 * treats it like any other unpinned page.
+	 */
+	public void coldPage(FrameDesc fdesc) {
+		unpinPage(fdesc);
+	}
+
+	/**
+	 * Notifies the replacer that a page was just released and should stay
+	 * resident longer than other pages, e.g. a directory or space map page.
+	 * The default treats it like any other unpinned page.
+	 */
+	public void keepPage(FrameDesc fdesc) {
+		unpinPage(fdesc);
+	}
+
 	/**
 	 * Selects the best frame to use for pinning a new page.
 	 * 
@@ -46,4 +134,224 @@ abstract class Replacer implements GlobalConst {
 	 */
 	public abstract int pickVictim();
 
+	/**
+	 * Selects a frame to hold the given page. Policies that split the pool
+	 * use the page to decide where to look; the default ignores it.
+	 * 
+	 * @param pid
+	 *            page the frame is wanted for, or INVALID_PAGEID if unknown
+	 * @return victim frame number, or -1 if none available
+	 */
+	public int pickVictim(int pid) {
+		return pickVictim();
+	}
+
+	/**
+	 * Selects a frame to hold the given page with pickVictim(int), counting
+	 * the frames examined toward the sweep length. The buffer manager's
+	 * misses come through here; batches and the background writer's walks
+	 * do not count.
+	 * 
+	 * @return victim frame number, or -1 if none available
+	 */
+	public synchronized int searchVictim(int pid) {
+		steps = 0;
+		int victim = pickVictim(pid);
+		sweepSteps.add(steps);
+		return victim;
+	}
+
+	/**
+	 * Selects frames for a batch of new pages in a single pass, best victim
+	 * first. The default asks pickVictim() repeatedly and stops at the first
+	 * frame it has already chosen, which suits policies whose hand moves on
+	 * by itself; the others override this.
+	 * 
+	 * @param victims
+	 *            output: the chosen frame numbers
+	 * @return number of victims chosen, up to victims.length
+	 */
+	public synchronized int pickVictims(int[] victims) {
+		int count = 0;
+		while (count < victims.length) {
+			int victim = pickVictim();
+			if ((victim == -1) || (contains(victims, count, victim))) {
+				break;
+			}
+			victims[count++] = victim;
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the list's unpinned frames to the victims chosen so far, in list
+	 * order, skipping frames already chosen.
+	 * 
+	 * @return the new number of victims
+	 */
+	protected int addUnpinned(FrameList list, int[] victims, int count) {
+		for (int f = list.first(); (f != FrameList.NONE) && (count < victims.length); f = list.next(f)) {
+			if ((isUnpinned(f)) && (!contains(victims, count, f))) {
+				victims[count++] = f;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the list's first unpinned frame.
+	 * 
+	 * @return the frame number, or -1 if every frame in the list is pinned
+	 */
+	protected int firstUnpinned(FrameList list) {
+		for (int f = list.first(); f != FrameList.NONE; f = list.next(f)) {
+			if (isUnpinned(f)) {
+				return f;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the first unpinned frame among the cold ones waiting at the front
+	 * of the list, for policies that put pages released as cold there.
+	 * 
+	 * @return the frame number, or -1 if there is none
+	 */
+	protected int firstCold(FrameList list, boolean[] cold) {
+		for (int f = list.first(); (f != FrameList.NONE) && (cold[f]); f = list.next(f)) {
+			if (isUnpinned(f)) {
+				return f;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the unpinned cold frames at the front of the list to the victims
+	 * chosen so far, like firstCold(), skipping frames already chosen.
+	 * 
+	 * @return the new number of victims
+	 */
+	protected int addCold(FrameList list, boolean[] cold, int[] victims, int count) {
+		for (int f = list.first(); (f != FrameList.NONE) && (cold[f]) && (count < victims.length);
+				f = list.next(f)) {
+			if ((isUnpinned(f)) && (!contains(victims, count, f))) {
+				victims[count++] = f;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * True if the frame is among the first count entries of frames.
+	 */
+	protected static boolean contains(int[] frames, int count, int frame) {
+		for (int i = 0; i < count; i++) {
+			if (frames[i] == frame) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the frame where the next victim search will start. Policies
+	 * without a sweeping hand start at frame 0.
+	 */
+	public int getHand() {
+		return 0;
+	}
+
+	/**
+	 * Lists frames in the order the policy expects to pick them as victims,
+	 * soonest first, without changing any of its state; the background
+	 * writer cleans frames in this order so that they are clean before they
+	 * are needed. Pinned frames may be left out. The default lists free
+	 * frames first and then the others coldest first by heat(), going round
+	 * from getHand() among equals; that is the order a clock hand takes them
+	 * in, and the list policies override it.
+	 * 
+	 * @param order
+	 *            output: frame numbers, soonest victim first
+	 * @return number of frames listed, up to order.length
+	 */
+	public int victimOrder(int[] order) {
+		final long[] heat = heat();
+		int start = getHand();
+		Integer[] frames = new Integer[frametab.length];
+		for (int i = 0; i < frames.length; i++) {
+			int f = (start + i) % frames.length;
+			frames[i] = f;
+			if (!frametab[f].isValid) {
+				heat[f] = Long.MIN_VALUE;
+			}
+		}
+
+		// The sort is stable, so equals stay in the hand's order
+		Arrays.sort(frames, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(heat[a], heat[b]);
+			}
+		});
+		int count = Math.min(order.length, frames.length);
+		for (int i = 0; i < count; i++) {
+			order[i] = frames[i];
+		}
+		return count;
+	}
+
+	/**
+	 * Scores each frame by how much the policy would rather keep its page,
+	 * higher meaning hotter, so the pool's contents can be saved hottest
+	 * first. The default has no preference.
+	 */
+	public long[] heat() {
+		return new long[frametab.length];
+	}
+
+	/**
+	 * Scores the frames of a list in order, oldest first, starting after
+	 * the given score.
+	 * 
+	 * @return the last score given
+	 */
+	protected static long rank(FrameList list, long[] heat, long score) {
+		for (int f = list.first(); f != FrameList.NONE; f = list.next(f)) {
+			heat[f] = ++score;
+		}
+		return score;
+	}
+
+	/**
+	 * Gets the number of frames examined while looking for victims.
+	 */
+	public long getSweepSteps() {
+		return sweepSteps.sum();
+	}
+
+	/**
+	 * Carries over the frames examined by the replacer this one replaces.
+	 */
+	void addSweepSteps(long count) {
+		sweepSteps.add(count);
+	}
+
+	/**
+	 * Gets the position of the frame in this replacer's frame table.
+	 */
+	protected int slot(FrameDesc fdesc) {
+		return fdesc.index - base;
+	}
+
+	/**
+	 * True if the frame can currently be chosen as a victim. Policies call
+	 * this for each frame they consider, with the replacer locked, so it
+	 * also counts the steps of the current search.
+	 */
+	protected boolean isUnpinned(int frame) {
+		steps++;
+		return frametab[frame].pinCount.get() == 0;
+	}
+
 } // abstract class Replacer implements GlobalConst
@@ -0,0 +1,80 @@
+package bufmgr;
+
+/**
+ * The buffer manager's registered MBean; each attribute is read from a
+ * fresh snapshot, so monitoring always sees live values.
+ */
+class StatsBean implements BufMgrMXBean {
+
+	private final BufMgr bufmgr;
+
+	StatsBean(BufMgr bufmgr) {
+		this.bufmgr = bufmgr;
+	}
+
+	public int getNumFrames() {
+		return bufmgr.getNumFrames();
+	}
+
+	public int getNumUnpinned() {
+		return bufmgr.getNumUnpinned();
+	}
+
+	public int getNumDirty() {
+		return bufmgr.stats().getNumDirty();
+	}
+
+	public long getHits() {
+		return bufmgr.stats.hits.sum();
+	}
+
+	public long getMisses() {
+		return bufmgr.stats.misses.sum();
+	}
+
+	public double getHitRatio() {
+		return bufmgr.stats().getHitRatio();
+	}
+
+	public long getEvictions() {
+		return bufmgr.stats.evictions.sum();
+	}
+
+	public long getDirtyEvictions() {
+		return bufmgr.stats.dirtyEvictions.sum();
+	}
+
+	public long getFlushes() {
+		return bufmgr.stats.flushes.sum();
+	}
+
+	public long getCompressedHits() {
+		return bufmgr.stats.compressedHits.sum();
+	}
+
+	public long getCompressedBytes() {
+		CompressedCache cache = bufmgr.cache;
+		return (cache == null) ? 0 : cache.getUsed();
+	}
+
+	public double getAverageSweepLength() {
+		return bufmgr.stats().getAverageSweepLength();
+	}
+
+	public long getLoadWaits() {
+		return bufmgr.stats.loadWaits.sum();
+	}
+
+	public long getLoadWaitMicros() {
+		return bufmgr.stats.loadWaitNanos.sum() / 1000;
+	}
+
+	public double getAverageMissMicros() {
+		return bufmgr.stats().getAverageMissMicros();
+	}
+
+	public long[] getMissLatencyHistogram() {
+		return bufmgr.stats().getMissLatencyHistogram();
+	}
+
+} // class StatsBean implements BufMgrMXBean
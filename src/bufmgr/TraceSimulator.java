@@ -0,0 +1,316 @@
+package bufmgr;
+
+import global.GlobalConst;
+import global.PageId;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replays a trace recorded by BufMgr.startTrace() against any replacement
+ * policy and pool size, without a database. Each run drives a fresh
+ * replacer over its own frame table the way the buffer manager would, and
+ * counts what the pool would have read and written; running the same trace
+ * over a range of sizes gives each policy's hit ratio curve.
+ * <br><br>
+ * The replay is single threaded, so it shows what a policy decides rather
+ * than how it behaves under contention. Pages pinned through a buffer ring
+ * are replayed as ordinary pins unpinned with the evict soon hint.
+ */
+public class TraceSimulator implements GlobalConst {
+
+	/** Policies replayed when none are given on the command line. */
+	public static final String[] POLICIES = { "Clock", "GCLOCK", "LRU", "LRU-K", "2Q", "ARC" };
+
+	/** Pool sizes replayed, as fractions of the traced pool's size. */
+	public static final double[] SCALES = { 0.25, 0.5, 1, 2, 4 };
+
+	// Operations and page ids of the events, in order
+	private byte[] ops;
+	private int[] pids;
+	private int count;
+
+	// Size of the pool the trace was recorded from
+	private final int tracedFrames;
+
+	/**
+	 * Counts from one replay of a trace.
+	 */
+	public static class Result {
+
+		/** Pins and optimistic reads that found their page resident. */
+		public long hits;
+
+		/** Pins that had to read their page. */
+		public long misses;
+
+		/** Pins of new pages, which had to find a frame but read nothing. */
+		public long newPins;
+
+		/** Dirty pages written back to make room. */
+		public long writes;
+
+		/** Pins skipped because every frame was pinned. */
+		public long stalls;
+
+		/**
+		 * Gets hits as a fraction of the pins of existing pages, or 0 if
+		 * there were none.
+		 */
+		public double getHitRatio() {
+			long pins = hits + misses;
+			return (pins == 0) ? 0 : (double) hits / pins;
+		}
+
+		public String toString() {
+			return String.format("hits=%d misses=%d new=%d writes=%d stalls=%d hitRatio=%.3f",
+					hits, misses, newPins, writes, stalls, getHitRatio());
+		}
+
+	} // public static class Result
+
+	/**
+	 * Loads a trace into memory.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read or is not a trace
+	 */
+	public TraceSimulator(String fname) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(fname), 1 << 16));
+		try {
+			if ((in.readInt() != TraceWriter.MAGIC) || (in.readInt() != TraceWriter.VERSION)) {
+				throw new IOException("Not a buffer pool trace: " + fname);
+			}
+			tracedFrames = in.readInt();
+
+			ops = new byte[1024];
+			pids = new int[1024];
+			int pid = 0;
+			int op;
+			while ((op = in.read()) != -1) {
+				// Undo the zigzag varint delta
+				int bits = 0;
+				for (int shift = 0;; shift += 7) {
+					int b = in.readUnsignedByte();
+					bits |= (b & 0x7F) << shift;
+					if ((b & 0x80) == 0) {
+						break;
+					}
+				}
+				pid += (bits >>> 1) ^ -(bits & 1);
+
+				if (count == ops.length) {
+					ops = Arrays.copyOf(ops, count * 2);
+					pids = Arrays.copyOf(pids, count * 2);
+				}
+				ops[count] = (byte) op;
+				pids[count++] = pid;
+			}
+		} catch (EOFException exc) {
+			throw new IOException("Truncated trace: " + fname, exc);
+		} finally {
+			in.close();
+		}
+
+	} // public TraceSimulator(String fname)
+
+	/**
+	 * Gets the number of events in the trace.
+	 */
+	public int getNumEvents() {
+		return count;
+	}
+
+	/**
+	 * Gets the number of frames of the pool the trace was recorded from.
+	 */
+	public int getTracedFrames() {
+		return tracedFrames;
+	}
+
+	/**
+	 * Replays the trace against the given policy and pool size.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the policy is unknown or numframes is not positive
+	 */
+	public Result run(String policy, int numframes) {
+
+		if (numframes <= 0) {
+			throw new IllegalArgumentException("Invalid pool size: " + numframes);
+		}
+		FrameDesc[] frametab = new FrameDesc[numframes];
+		for (int i = 0; i < numframes; i++) {
+			frametab[i] = new FrameDesc(i);
+		}
+		Replacer replacer = Replacer.forName(policy, frametab);
+		Map<Integer, Integer> pageToFrame = new HashMap<Integer, Integer>();
+		Result result = new Result();
+
+		for (int e = 0; e < count; e++) {
+			int op = ops[e] & 0xFF & ~TraceWriter.DIRTY;
+			boolean dirty = (ops[e] & TraceWriter.DIRTY) != 0;
+			int pid = pids[e];
+			Integer framenum = pageToFrame.get(pid);
+			FrameDesc frame = (framenum == null) ? null : frametab[framenum];
+
+			switch (op) {
+			case TraceWriter.READ:
+				if (frame != null) {
+					// Optimistic reads do not tell the replacer
+					result.hits++;
+					break;
+				}
+				// The page was resident when traced but is not here, so
+				// the read would have fallen back to a pin
+				if (load(frametab, replacer, pageToFrame, pid, result)) {
+					result.misses++;
+					unpin(frametab[pageToFrame.get(pid)], replacer, TraceWriter.UNPIN);
+				}
+				break;
+
+			case TraceWriter.PIN:
+			case TraceWriter.PIN_NEW:
+				if (frame != null) {
+					frame.pinCount.incrementAndGet();
+					replacer.pinPage(frame);
+					result.hits++;
+				} else if (load(frametab, replacer, pageToFrame, pid, result)) {
+					if (op == TraceWriter.PIN) {
+						result.misses++;
+					} else {
+						result.newPins++;
+					}
+				}
+				break;
+
+			case TraceWriter.UNPIN:
+			case TraceWriter.UNPIN_KEEP:
+			case TraceWriter.UNPIN_EVICT:
+				// Unpins of pins that stalled find nothing to unpin
+				if ((frame != null) && (frame.pinCount.get() > 0)) {
+					if (dirty) {
+						frame.isDirty = true;
+					}
+					unpin(frame, replacer, op);
+				}
+				break;
+
+			case TraceWriter.FREE:
+				if ((frame != null) && (frame.pinCount.get() == 0)) {
+					pageToFrame.remove(pid);
+					frame.isValid = false;
+					frame.isDirty = false;
+					replacer.freePage(frame);
+				}
+				break;
+
+			default:
+				throw new IllegalStateException("Unknown trace event " + op);
+			}
+		}
+		return result;
+
+	} // public Result run(String policy, int numframes)
+
+	/**
+	 * Brings a page into a frame picked by the replacer and pins it.
+	 *
+	 * @return false if every frame was pinned
+	 */
+	private static boolean load(FrameDesc[] frametab, Replacer replacer,
+			Map<Integer, Integer> pageToFrame, int pid, Result result) {
+
+		int framenum = replacer.pickVictim(pid);
+		if (framenum == -1) {
+			result.stalls++;
+			return false;
+		}
+
+		FrameDesc frame = frametab[framenum];
+		if (frame.isValid) {
+			pageToFrame.remove(frame.pageno.pid);
+			if (frame.isDirty) {
+				result.writes++;
+			}
+		}
+		frame.pinCount.set(1);
+		frame.isDirty = false;
+		frame.pageno = new PageId(pid);
+		frame.isValid = true;
+		pageToFrame.put(pid, framenum);
+		replacer.newPage(frame);
+		return true;
+
+	} // private static boolean load(...)
+
+	/**
+	 * Drops a pin, telling the replacer as BufMgr.unpinPage() would.
+	 */
+	private static void unpin(FrameDesc frame, Replacer replacer, int op) {
+		if (frame.pinCount.decrementAndGet() == 0) {
+			if (op == TraceWriter.UNPIN_KEEP) {
+				replacer.keepPage(frame);
+			} else if (op == TraceWriter.UNPIN_EVICT) {
+				replacer.coldPage(frame);
+			} else {
+				replacer.unpinPage(frame);
+			}
+		}
+	}
+
+	/**
+	 * Prints the hit ratio of each policy at each pool size. Arguments: the
+	 * trace file, then optionally a comma separated list of policies and a
+	 * comma separated list of pool sizes; the defaults are POLICIES and the
+	 * traced pool's size scaled by SCALES.
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if ((args.length < 1) || (args.length > 3)) {
+			System.err.println("Usage: java bufmgr.TraceSimulator trace"
+					+ " [policy,...] [frames,...]");
+			System.exit(1);
+		}
+		TraceSimulator sim = new TraceSimulator(args[0]);
+		String[] policies = (args.length > 1) ? args[1].split(",") : POLICIES;
+		int[] sizes;
+		if (args.length > 2) {
+			String[] parts = args[2].split(",");
+			sizes = new int[parts.length];
+			for (int i = 0; i < parts.length; i++) {
+				sizes[i] = Integer.parseInt(parts[i].trim());
+			}
+		} else {
+			sizes = new int[SCALES.length];
+			for (int i = 0; i < SCALES.length; i++) {
+				sizes[i] = Math.max(1, (int) Math.round(sim.getTracedFrames() * SCALES[i]));
+			}
+		}
+
+		System.out.printf("%d events, recorded with %d frames%n", sim.getNumEvents(),
+				sim.getTracedFrames());
+		System.out.printf("%8s", "frames");
+		for (String policy : policies) {
+			System.out.printf(" %8s", policy);
+		}
+		System.out.println();
+		for (int size : sizes) {
+			System.out.printf("%8d", size);
+			for (String policy : policies) {
+				System.out.printf(" %8.3f", sim.run(policy.trim(), size).getHitRatio());
+			}
+			System.out.println();
+		}
+
+	} // public static void main(String[] args)
+
+} // public class TraceSimulator implements GlobalConst
@@ -0,0 +1,111 @@
+package bufmgr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a trace of the buffer pool's page events, for replaying offline
+ * with TraceSimulator. A trace starts with MAGIC, VERSION and the number of
+ * frames the pool had; each event after that is one byte of operation,
+ * with DIRTY added for dirty unpins, and the distance from the previous
+ * event's page id as a zigzag varint. Pages next to each other thus take
+ * two bytes per event, and pages far apart at most six.
+ */
+class TraceWriter {
+
+	/** First bytes of every trace file: "MBTR". */
+	static final int MAGIC = 0x4D425452;
+
+	/** Format of the events that follow the header. */
+	static final int VERSION = 1;
+
+	/** Pin that reads the page on a miss. */
+	static final int PIN = 0;
+
+	/** Pin of a new or overwritten page, which reads nothing on a miss. */
+	static final int PIN_NEW = 1;
+
+	/** Unpin with normal priority. */
+	static final int UNPIN = 2;
+
+	/** Unpin with the keep priority hint. */
+	static final int UNPIN_KEEP = 3;
+
+	/** Unpin with the evict soon hint, or through a buffer ring. */
+	static final int UNPIN_EVICT = 4;
+
+	/** Page freed and deallocated. */
+	static final int FREE = 5;
+
+	/** Optimistic read that found the page resident without pinning it. */
+	static final int READ = 6;
+
+	/** Added to an unpin that marks the page dirty. */
+	static final int DIRTY = 0x80;
+
+	// Buffered output to the trace file
+	private final DataOutputStream out;
+
+	// Page id of the previous event
+	private int lastPid;
+
+	// Number of events written
+	private long events;
+
+	/**
+	 * Creates the trace file and writes its header.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	TraceWriter(String fname, int numframes) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fname), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(numframes);
+	}
+
+	/**
+	 * Appends one event to the trace.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	synchronized void record(int op, int pid) throws IOException {
+
+		out.writeByte(op);
+		int delta = pid - lastPid;
+		lastPid = pid;
+
+		// Zigzag, so that small steps back are small numbers too
+		int bits = (delta << 1) ^ (delta >> 31);
+		while ((bits & ~0x7F) != 0) {
+			out.writeByte((bits & 0x7F) | 0x80);
+			bits >>>= 7;
+		}
+		out.writeByte(bits);
+		events++;
+
+	} // synchronized void record(int op, int pid)
+
+	/**
+	 * Gets the number of events written so far.
+	 */
+	synchronized long getEvents() {
+		return events;
+	}
+
+	/**
+	 * Flushes and closes the trace file.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	synchronized void close() throws IOException {
+		out.close();
+	}
+
+} // class TraceWriter
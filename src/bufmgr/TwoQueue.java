@@ -0,0 +1,174 @@
+package bufmgr;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q replacement policy (Johnson and Shasha). Pages enter a FIFO queue (A1in)
+ * when first loaded. Only pages that are referenced again after falling out
+ * of it, as remembered by a queue of page numbers (A1out), are promoted to
+ * the LRU queue (Am) of hot pages. One-off accesses such as scans therefore
+ * cycle through A1in without disturbing Am.
+ */
+public class TwoQueue extends Replacer {
+
+	// Frames that hold no page
+	private final FrameList free;
+
+	// Frames loaded once, in load order
+	private final FrameList a1in;
+
+	// Frames with proven reuse, least recent first
+	private final FrameList am;
+
+	// Page numbers recently evicted from A1in, oldest first
+	private final LinkedHashSet<Integer> a1out;
+
+	// Page number each frame held when we last heard about it
+	private final int[] resident;
+
+	// Frames released as cold and not used since, which leave no trace
+	private final boolean[] cold;
+
+	// Target size of A1in and capacity of A1out
+	private final int kin;
+	private final int kout;
+
+	public TwoQueue(FrameDesc[] frametab) {
+		super(frametab);
+		int numframes = frametab.length;
+		free = new FrameList(numframes);
+		a1in = new FrameList(numframes);
+		am = new FrameList(numframes);
+		a1out = new LinkedHashSet<>();
+		resident = new int[numframes];
+		cold = new boolean[numframes];
+		for (int i = 0; i < numframes; i++) {
+			free.addLast(i);
+			resident[i] = INVALID_PAGEID;
+		}
+		kin = Math.max(1, numframes / 4);
+		kout = Math.max(1, numframes / 2);
+	}
+
+	@Override
+	public synchronized void newPage(FrameDesc fdesc) {
+		int f = slot(fdesc);
+
+		// A page leaving A1in is remembered in A1out
+		if (a1in.contains(f) && (resident[f] != INVALID_PAGEID) && (!cold[f])) {
+			a1out.add(resident[f]);
+			if (a1out.size() > kout) {
+				Iterator<Integer> oldest = a1out.iterator();
+				oldest.next();
+				oldest.remove();
+			}
+		}
+		free.remove(f);
+		a1in.remove(f);
+		am.remove(f);
+		cold[f] = false;
+
+		resident[f] = fdesc.pageno.pid;
+		if (a1out.remove(resident[f])) {
+			// Seen recently, so this is a hot page
+			am.addLast(f);
+		} else {
+			a1in.addLast(f);
+		}
+	}
+
+	@Override
+	public synchronized void freePage(FrameDesc fdesc) {
+		int f = slot(fdesc);
+		a1in.remove(f);
+		am.remove(f);
+		resident[f] = INVALID_PAGEID;
+		cold[f] = false;
+		free.addLast(f);
+	}
+
+	@Override
+	public synchronized void pinPage(FrameDesc fdesc) {
+		// Only hot pages move; references in A1in are assumed correlated,
+		// except that a cold page goes back to where new pages start
+		int f = slot(fdesc);
+		if (am.contains(f)) {
+			am.addLast(f);
+		} else if (cold[f]) {
+			a1in.addLast(f);
+		}
+		cold[f] = false;
+	}
+
+	@Override
+	public void unpinPage(FrameDesc fdesc) {
+		// The reference was recorded when the page was pinned
+	}
+
+	@Override
+	public synchronized void coldPage(FrameDesc fdesc) {
+		// Next in line in A1in, and not remembered in A1out once replaced;
+		// the page is still resident, so a hit can bring it back
+		int f = slot(fdesc);
+		if (a1in.contains(f) || am.contains(f)) {
+			am.remove(f);
+			a1in.addFirst(f);
+			cold[f] = true;
+		}
+	}
+
+	@Override
+	public synchronized void keepPage(FrameDesc fdesc) {
+		// Straight to the hot queue, without waiting to be seen again
+		int f = slot(fdesc);
+		if (a1in.contains(f) || am.contains(f)) {
+			a1in.remove(f);
+			am.addLast(f);
+		}
+	}
+
+	@Override
+	public synchronized long[] heat() {
+		long[] heat = new long[frametab.length];
+		rank(am, heat, rank(a1in, heat, 0));
+		return heat;
+	}
+
+	@Override
+	public synchronized int pickVictim() {
+		int victim = firstUnpinned(free);
+		if (victim == -1) {
+			// Cold pages wait at the front of A1in and go before any other page
+			victim = firstCold(a1in, cold);
+		}
+		if (victim == -1 && a1in.size() > kin) {
+			victim = firstUnpinned(a1in);
+		}
+		if (victim == -1) {
+			victim = firstUnpinned(am);
+		}
+		if (victim == -1) {
+			victim = firstUnpinned(a1in);
+		}
+		return victim;
+	}
+
+	@Override
+	public synchronized int pickVictims(int[] victims) {
+		// Same order as pickVictim(), carrying on down the lists
+		int count = addCold(a1in, cold, victims, addUnpinned(free, victims, 0));
+		if (a1in.size() > kin) {
+			count = addUnpinned(a1in, victims, count);
+		}
+		count = addUnpinned(am, victims, count);
+		return addUnpinned(a1in, victims, count);
+	}
+
+	@Override
+	public int victimOrder(int[] order) {
+		// Picking the victims only reads the lists
+		return pickVictims(order);
+	}
+
+} // public class TwoQueue extends Replacer
@@ -10,6 +10,9 @@ class DBFirstPage extends DBHeaderPage {
   /** Offest for the total number of pages. */
   protected static final int NUM_DB_PAGE = PAGE_SIZE - 4;
 
+  /** Offset for the number of space-map pages following the first page. */
+  protected static final int NUM_MAP_PAGE = PAGE_SIZE - 8;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -40,4 +43,19 @@ class DBFirstPage extends DBHeaderPage {
     return getIntValue(NUM_DB_PAGE);
   }
 
+  /**
+   * Sets the number of space-map pages following the first page.
+   */
+  public void setNumMapPages(int num) {
+    setIntValue(num, NUM_MAP_PAGE);
+  }
+
+  /**
+   * Gets the number of space-map pages following the first page, or 0 if
+   * the database predates growing files.
+   */
+  public int getNumMapPages() {
+    return getIntValue(NUM_MAP_PAGE);
+  }
+
 } // class DBFirstPage extends DBHeaderPage
@@ -27,7 +27,7 @@ class DBHeaderPage extends Page {
   protected static final int DIR_PAGE_USED_BYTES = 8 + 8;
 
   /** Amount of additional bytes used by the first page. */
-  protected static final int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4;
+  protected static final int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 8;
 
   // --------------------------------------------------------------------------
 
@@ -43,7 +43,7 @@ class DBHeaderPage extends Page {
    * Constructor that wraps an existing header page.
    */
   public DBHeaderPage(Page page) {
-    super(page.getData());
+    super(page);
   }
 
   /**
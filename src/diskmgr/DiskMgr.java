@@ -5,9 +5,33 @@ import global.Minibase;
 import global.Page;
 import global.PageId;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <h3>Minibase Disk Manager</h3>
@@ -20,84 +44,206 @@ public class DiskMgr implements GlobalConst {
   /** Number of actual bits per page. */
   protected static final int BITS_PER_PAGE = PAGE_SIZE * 8;
 
+  /**
+   * Longest run the file can grow to make room for: each space-map page
+   * added by growing sits at the start of the range it maps, so no longer
+   * run fits between two of them.
+   */
+  public static final int MAX_GROWN_RUN = BITS_PER_PAGE - 1;
+
+  /** Suffix of the file listing the pages resident when last closed. */
+  public static final String WARM_SUFFIX = ".warm";
+
+  /** Most bytes of the file mapped by one buffer in mapped mode. */
+  public static final int MAP_CHUNK = (1 << 30) / PAGE_SIZE * PAGE_SIZE;
+
   // --------------------------------------------------------------------------
 
   /** Database file name. */
   protected String name;
 
-  /** Database file size, in pages. */
-  protected int num_pages;
+  /** Database file size, in pages; grows when the file runs out of room. */
+  protected volatile int num_pages;
+
+  /** Pages the file grows by when it runs out of room, by default. */
+  public static final int DEFAULT_GROW_EXTENT = 1024;
+
+  /** Pages the file grows by when it runs out of room, or 0 for never. */
+  protected int grow_extent = DEFAULT_GROW_EXTENT;
+
+  /**
+   * Number of space-map pages right after the first page. The space map
+   * of pages added by growing the file lives on the first page of each
+   * range of BITS_PER_PAGE pages instead; see map_page_id().
+   */
+  protected int base_map_pages;
 
   /** Actual reference to the Minibase file. */
   protected RandomAccessFile fp;
 
+  /**
+   * Channel of the Minibase file; single pages are transferred with
+   * positional reads and writes, which many threads can issue at once.
+   */
+  protected FileChannel channel;
+
+  /** True if the file is accessed through memory mappings. */
+  protected final boolean mapped;
+
+  /**
+   * Mappings of the file in MAP_CHUNK pieces while it is open in mapped
+   * mode, or null; no page straddles two of them.
+   */
+  protected volatile MappedByteBuffer[] maps;
+
+  /**
+   * In-memory mirror of the space map, 64 pages per word, with bit i of
+   * word w set if page 64 * w + i is allocated; guarded by this object's
+   * monitor and written through to the space-map pages by set_bits().
+   */
+  protected long[] space_map;
+
+  /** Number of allocated pages, maintained by set_bits(). */
+  protected int alloc_cnt;
+
+  /** Page where the next search for a free run starts. */
+  protected int next_fit;
+
+  /** Smallest run allocated best fit from the free extents. */
+  protected static final int LARGE_RUN = 64;
+
+  /**
+   * Runs of free pages, by first page, mapped to their lengths; kept
+   * alongside the space map by set_bits(), with neighbours coalesced.
+   */
+  protected TreeMap<Integer, Integer> free_extents;
+
+  /** The same runs, each as its length shifted up 32 bits plus its start. */
+  protected TreeSet<Long> free_sizes;
+
+  /**
+   * Entries of the file library by lower-case file name, loaded from the
+   * header pages when the database is opened and kept in step with them by
+   * add_file_entry() and delete_file_entry(); guarded by this object's
+   * monitor.
+   */
+  protected HashMap<String, FileEntry> file_index;
+
+  /**
+   * Empty entry slots on the header pages, each as its page id shifted up
+   * 32 bits plus its entry number, lowest first.
+   */
+  protected TreeSet<Long> free_slots;
+
+  /** Id of the last header page in the chain. */
+  protected int last_hpid;
+
+  /**
+   * Where a file's entry lives on the header pages, and the file's first
+   * page.
+   */
+  protected static class FileEntry {
+
+    /** Header page holding the entry. */
+    final int hpid;
+
+    /** Entry number on the header page. */
+    final int slot;
+
+    /** First page of the file. */
+    final int start;
+
+    FileEntry(int hpid, int slot, int start) {
+      this.hpid = hpid;
+      this.slot = slot;
+      this.start = start;
+    }
+
+  } // protected static class FileEntry
+
   /** Number of disk reads since construction. */
-  protected int read_cnt;
+  protected final AtomicInteger read_cnt = new AtomicInteger();
 
   /** Number of disk writes since construction. */
-  protected int write_cnt;
+  protected final AtomicInteger write_cnt = new AtomicInteger();
+
+  /**
+   * Latch serializing the scattering and gathering transfers of page runs,
+   * which have no positional form and so move the channel's position; the
+   * positional single page transfers never touch the position and need no
+   * latch. The space map and file entries are guarded by this object's own
+   * monitor instead, because they pin pages whose loads may need the latch.
+   */
+  protected final Object io_latch = new Object();
+
+  /** Default number of asynchronous transfers that may be in flight. */
+  public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+  /** Number of asynchronous transfers that may be in flight. */
+  protected int queue_depth = DEFAULT_QUEUE_DEPTH;
+
+  /** Threads running the asynchronous transfers, started on first use. */
+  protected ExecutorService io_pool;
+
+  /** One permit per transfer that may be in flight on io_pool. */
+  protected Semaphore io_slots;
+
+  /**
+   * Latch guarding io_pool, io_slots and queue_depth; kept apart from this
+   * object's monitor so that starting a transfer never waits on the space
+   * map, whose holder may be waiting on the transfer's page.
+   */
+  protected final Object pool_latch = new Object();
 
   // --------------------------------------------------------------------------
 
+  /**
+   * Constructs a disk manager that reads and writes the file through its
+   * channel.
+   */
+  public DiskMgr() {
+    this(false);
+  }
+
+  /**
+   * Constructs a disk manager, optionally in mapped mode: the whole file is
+   * then mapped into memory when it is opened, page transfers become memory
+   * copies, and the mappings are forced out to the file by force() and on
+   * close. The file must fit in the address space.
+   *
+   * @param mapped If the file should be accessed through memory mappings
+   */
+  public DiskMgr(boolean mapped) {
+    this.mapped = mapped;
+  }
+
+  /**
+   * True if the file is accessed through memory mappings.
+   */
+  public boolean isMapped() {
+    return mapped;
+  }
+
   /**
    * Gets the number of disk reads since construction.
    */
   public int getReadCount() {
-    return read_cnt;
+    return read_cnt.get();
   }
 
   /**
    * Gets the number of disk writes since construction.
    */
   public int getWriteCount() {
-    return write_cnt;
+    return write_cnt.get();
   }
 
   /**
    * Gets the number of allocated disk pages.
    */
-  public int getAllocCount() { // TODO: maintain and return "protected int alloc_cnt"
-
-    // initialize reused variables
-    int count = 0;
-    int bit_number = 0;
-    PageId pgid = new PageId();
-    Page apage = new Page();
-
-    // iterate each page in the space map
-    int num_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
-    for (int i = 0; i < num_map_pages; i++) {
-
-      // pin the space-map page
-      pgid.pid = 1 + i;
-      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
-
-      // how many bits should we examine on this page?
-      int num_bits_this_page = num_pages - i * BITS_PER_PAGE;
-      if (num_bits_this_page > BITS_PER_PAGE) {
-        num_bits_this_page = BITS_PER_PAGE;
-      }
-
-      // walk the page looking for 1 bits
-      byte[] pagebuf = apage.getData();
-      for (int pgptr = 0; num_bits_this_page > 0; pgptr++) { // start forloop02
-        for (int mask = 1; mask < 256 && num_bits_this_page > 0; mask = (mask << 1), --num_bits_this_page, ++bit_number) {
-          int bit = pagebuf[pgptr] & mask;
-          if (bit != 0) {
-            count++;
-          }
-        }
-      }
-
-      // unpin the space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
-
-    } // end of forloop01
-
-    // return the resulting count
-    return count;
-
-  } // public int getAllocCount()
+  public synchronized int getAllocCount() {
+    return alloc_cnt;
+  }
 
   /**
    * Creates and opens a new database with the given file name and specified
@@ -118,21 +264,28 @@ public class DiskMgr implements GlobalConst {
       fp = new RandomAccessFile(fname, "rw");
       fp.seek((long) (num_pages * PAGE_SIZE - 1));
       fp.writeByte(0);
+      channel = fp.getChannel();
+      map_file();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
+    // calculate how many pages are needed for the space map
+    int num_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    base_map_pages = num_map_pages;
+
     // create and initialize the first DB page
     PageId pageId = new PageId(FIRST_PAGEID);
     DBFirstPage firstpg = new DBFirstPage();
     Minibase.BufferManager.pinPage(pageId, firstpg, PIN_MEMCPY);
     firstpg.setNumDBPages(num_pages);
-    Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
+    firstpg.setNumMapPages(num_map_pages);
+    Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY, PRIORITY_KEEP);
 
-    // calculate how many pages are needed for the space map; reserve
-    // pages 0 and 1 and as many additional pages as are needed
-    int num_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    // reserve pages 0 and 1 and as many additional pages as are needed
+    init_space_map(false);
     set_bits(pageId, 1 + num_map_pages, 1);
+    init_file_index();
 
   } // public void createDB(String fname, int num_pgs)
 
@@ -140,11 +293,22 @@ public class DiskMgr implements GlobalConst {
    * Open the database with the given file name.
    */
   public void openDB(String fname) {
+    openDB(fname, false);
+  }
+
+  /**
+   * Open the database with the given file name, optionally warming up the
+   * buffer pool in the background with the pages that were resident when
+   * the database was last closed.
+   */
+  public void openDB(String fname, boolean warmup) {
 
     // save the name and open the database file
     name = fname;
     try {
       fp = new RandomAccessFile(fname, "rw");
+      channel = fp.getChannel();
+      map_file();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
@@ -158,16 +322,39 @@ public class DiskMgr implements GlobalConst {
     // get the total number of pages
     DBFirstPage firstpg = new DBFirstPage(apage);
     num_pages = firstpg.getNumDBPages();
-    Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
+    base_map_pages = firstpg.getNumMapPages();
+    Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN, PRIORITY_KEEP);
+    if (base_map_pages == 0) {
+      // written before the file could grow
+      base_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    }
+    init_space_map(true);
+    init_file_index();
 
-  } // public void openDB(String fname)
+    if (warmup) {
+      int[] pids = load_warm_list();
+      if (pids != null) {
+        Minibase.BufferManager.warmUp(pids);
+      }
+    }
+
+  } // public void openDB(String fname, boolean warmup)
 
   /**
-   * Closes the database file.
+   * Closes the database file, saving the list of resident pages for the
+   * next warm-up.
    */
   public void closeDB() {
     try {
+      Minibase.BufferManager.stopHeapMonitor();
+      Minibase.BufferManager.stopWriter();
+      Minibase.BufferManager.stopPrefetch();
+      Minibase.BufferManager.stopTrace();
+      save_warm_list(Minibase.BufferManager.getResidentPages());
       Minibase.BufferManager.flushAllPages();
+      stop_io();
+      force();
+      maps = null;
       fp.close();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
@@ -181,8 +368,107 @@ public class DiskMgr implements GlobalConst {
     closeDB();
     File DBfile = new File(name);
     DBfile.delete();
+    new File(name + WARM_SUFFIX).delete();
+  }
+
+  /**
+   * Maps the whole file into memory, if in mapped mode.
+   */
+  protected void map_file() throws IOException {
+
+    if (!mapped) {
+      return;
+    }
+    long size = channel.size();
+    MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + MAP_CHUNK - 1) / MAP_CHUNK)];
+    for (int i = 0; i < chunks.length; i++) {
+      long start = (long) i * MAP_CHUNK;
+      chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+          Math.min(MAP_CHUNK, size - start));
+    }
+    maps = chunks;
+
+  } // protected void map_file()
+
+  /**
+   * Gets a view of the given page in the file's mappings, positioned at
+   * its first byte and limited to its last.
+   */
+  protected ByteBuffer map_slice(int pid) {
+    long offset = (long) pid * PAGE_SIZE;
+    ByteBuffer slice = maps[(int) (offset / MAP_CHUNK)].duplicate();
+    int start = (int) (offset % MAP_CHUNK);
+    slice.limit(start + PAGE_SIZE).position(start);
+    return slice;
   }
 
+  /**
+   * Forces the pages written through the mappings out to the file, if in
+   * mapped mode; BufMgr.flushAllPages() calls this once it has written the
+   * dirty pages. Pages written through the channel are left to the OS, as
+   * before.
+   */
+  public void force() {
+    MappedByteBuffer[] chunks = maps;
+    if (chunks != null) {
+      for (MappedByteBuffer chunk : chunks) {
+        chunk.force();
+      }
+    }
+  }
+
+  /**
+   * Saves the given page ids next to the database file. The list only
+   * speeds up the next warm-up, so failing to write it is not fatal.
+   */
+  protected void save_warm_list(int[] pids) {
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(name + WARM_SUFFIX)))) {
+      out.writeInt(pids.length);
+      for (int pid : pids) {
+        out.writeInt(pid);
+      }
+    } catch (IOException exc) {
+      System.err.println("Could not save " + name + WARM_SUFFIX + ": " + exc);
+    }
+
+  } // protected void save_warm_list(int[] pids)
+
+  /**
+   * Loads the page ids saved by save_warm_list(), leaving out any that no
+   * longer lie within the database.
+   *
+   * @return the page ids, or null if there is no usable list
+   */
+  protected int[] load_warm_list() {
+
+    File file = new File(name + WARM_SUFFIX);
+    if (!file.exists()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)))) {
+      int count = in.readInt();
+      if ((count < 0) || ((long) count * 4 > file.length())) {
+        return null;
+      }
+      int[] pids = new int[count];
+      int valid = 0;
+      for (int i = 0; i < count; i++) {
+        int pid = in.readInt();
+        if ((pid >= 0) && (pid < num_pages)) {
+          pids[valid++] = pid;
+        }
+      }
+      return Arrays.copyOf(pids, valid);
+    } catch (IOException exc) {
+      System.err.println("Could not load " + file + ": " + exc);
+      return null;
+    }
+
+  } // protected int[] load_warm_list()
+
   /**
    * Allocates a single page (i.e. run size 1) on disk.
    *
@@ -194,86 +480,168 @@ public class DiskMgr implements GlobalConst {
   }
 
   /**
-   * Allocates a set of pages on disk, given the run size.
+   * Allocates a set of pages on disk, given the run size. Runs of LARGE_RUN
+   * pages or more come from the smallest free extent that holds them; the
+   * others from the next free run after the previous allocation. If there
+   * is no such run the file grows by the grow extent, or by the run size if
+   * that is larger, and is searched again. Growing cannot make room for
+   * runs longer than MAX_GROWN_RUN, which only fit in free space the file
+   * already has.
    *
    * @return The new page's id
    * @throws IllegalArgumentException if run_size is invalid
-   * @throws IllegalStateException if the database is full
+   * @throws IllegalStateException if the database is full and cannot grow,
+   *           or the run is longer than MAX_GROWN_RUN and does not fit
    */
-  public PageId allocate_page(int run_size) {
+  public synchronized PageId allocate_page(int run_size) {
 
     // validate the run size
-    if ((run_size < 1) || (run_size > num_pages)) {
+    if ((run_size < 1) || ((grow_extent == 0) && (run_size > num_pages))) {
       throw new IllegalArgumentException("Invalid run size; allocate aborted");
     }
 
-    // calculate the run in the space map
-    int num_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
-    int current_run_start = 0;
-    int current_run_length = 0;
+    // out of room: grow the file and look again; a space-map page can split
+    // the new pages, but a run shorter than a map page's range then fits
+    // after a second extension
+    int first = find_free(run_size);
+    if ((first == -1) && (grow_extent > 0) && (run_size > MAX_GROWN_RUN)) {
+      throw new IllegalStateException("Run longer than " + MAX_GROWN_RUN
+          + " pages does not fit; allocate aborted");
+    }
+    for (int tries = 0; (first == -1) && (grow_extent > 0) && (tries < 2); tries++) {
+      grow(Math.max(grow_extent, run_size));
+      first = find_free(run_size);
+    }
 
-    // this loop goes over each page in the space map
-    PageId pgid = new PageId();
-    Page apage = new Page();
-    for (int i = 0; i < num_map_pages; ++i) {
+    // check for disk full exception
+    if (first == -1) {
+      throw new IllegalStateException("Not enough space left; allocate aborted");
+    }
 
-      // pin the space-map page
-      pgid.pid = i + 1;
-      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
+    // update the space map and return the resulting page id
+    PageId firstpg = new PageId(first);
+    set_bits(firstpg, run_size, 1);
+    next_fit = (first + run_size < num_pages) ? first + run_size : 0;
+    return firstpg;
 
-      // get the num of bits on current page
-      int num_bits_this_page = num_pages - i * BITS_PER_PAGE;
-      if (num_bits_this_page > BITS_PER_PAGE)
-        num_bits_this_page = BITS_PER_PAGE;
+  } // public PageId allocate_page(int run_size)
 
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length. The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      byte[] pagebuf = apage.getData();
-      for (int byteptr = 0; num_bits_this_page > 0
-          && current_run_length < run_size; byteptr++) {
-
-        // initialize bit mask
-        Byte mask = new Byte(new Integer(1).byteValue());
-        byte tmpmask = mask.byteValue();
-
-        // search the page for an empty run
-        while (mask.intValue() != 0 && (num_bits_this_page > 0)
-            && (current_run_length < run_size)) {
-
-          // if a non-empty page is found
-          if ((pagebuf[byteptr] & tmpmask) != 0) {
-            current_run_start += current_run_length + 1;
-            current_run_length = 0;
-          } else {
-            current_run_length++;
-          }
+  /**
+   * Finds a free run for allocate_page(), without growing the file.
+   *
+   * @return the first page of the run, or -1 if there is none
+   */
+  protected int find_free(int run_size) {
 
-          // advance to the next page
-          tmpmask <<= 1;
-          mask = new Byte(tmpmask);
-          num_bits_this_page--;
+    // large runs: the smallest free extent that holds them, lowest first
+    if (run_size >= LARGE_RUN) {
+      Long fit = free_sizes.ceiling((long) run_size << 32);
+      return (fit == null) ? -1 : (int) (long) fit;
+    }
 
-        } // while
+    // small runs, next fit: search from the cursor to the end, then from
+    // the start up to the cursor
+    int first = find_run(next_fit, num_pages, run_size);
+    if (first == -1) {
+      first = find_run(0, Math.min(num_pages, next_fit + run_size - 1), run_size);
+    }
+    return first;
 
-      } // inner loop
+  } // protected int find_free(int run_size)
 
-      // unpin the current space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+  /**
+   * Sets the number of pages the file grows by when it runs out of room;
+   * 0 makes allocations fail instead.
+   *
+   * @throws IllegalArgumentException if pages is negative
+   */
+  public synchronized void setGrowExtent(int pages) {
+    if (pages < 0) {
+      throw new IllegalArgumentException("Invalid grow extent: " + pages);
+    }
+    grow_extent = pages;
+  }
 
-    } // outer loop
+  /**
+   * Gets the number of pages in the database file.
+   */
+  public int getNumPages() {
+    return num_pages;
+  }
 
-    // check for disk full exception
-    if (current_run_length < run_size) {
-      throw new IllegalStateException("Not enough space left; allocate aborted");
+  /**
+   * Grows the file by count free pages, plus any space-map pages the new
+   * pages need. There is no log, so the steps are ordered to leave a
+   * consistent file wherever they stop: the file is extended with zeroes
+   * first, which new space-map pages read as all free; the new map pages
+   * are claimed and flushed next; the new size is written to the first
+   * page and flushed last, and until it is the extension is ignored.
+   *
+   * @throws IllegalStateException if the file cannot grow that much
+   */
+  protected void grow(int count) {
+
+    int old_pages = num_pages;
+    int old_maps = (old_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    long want = (long) old_pages + count;
+    want += (want + BITS_PER_PAGE - 1) / BITS_PER_PAGE - old_maps;
+    if (want > Integer.MAX_VALUE / 2) {
+      throw new IllegalStateException("Database too large; allocate aborted");
     }
+    int new_pages = (int) want;
+    int new_maps = (new_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
 
-    // update the space map and return the resulting page id
-    PageId firstpg = new PageId(current_run_start);
-    set_bits(firstpg, run_size, 1);
-    return firstpg;
+    // extend the file, and the mappings in mapped mode
+    try {
+      fp.setLength((long) new_pages * PAGE_SIZE);
+      map_file();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
 
-  } // public PageId allocate_page(int run_size)
+    // add the pages to the space map as free, then claim and flush the
+    // new space-map pages
+    space_map = Arrays.copyOf(space_map, (new_pages + 63) / 64);
+    num_pages = new_pages;
+    add_free(old_pages, new_pages - 1);
+    for (int i = old_maps; i < new_maps; i++) {
+      PageId pgid = new PageId(map_page_id(i));
+      set_bits(pgid, 1, 1);
+      flush_page(pgid);
+    }
+
+    // commit the new size
+    PageId pageId = new PageId(FIRST_PAGEID);
+    Page apage = new Page();
+    Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
+    new DBFirstPage(apage).setNumDBPages(new_pages);
+    Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY, PRIORITY_KEEP);
+    flush_page(pageId);
+    force();
+
+  } // protected void grow(int count)
+
+  /**
+   * Writes the given page to disk if it is still in the buffer pool; if it
+   * is not, it was written when it was evicted.
+   */
+  private void flush_page(PageId pageno) {
+    try {
+      Minibase.BufferManager.flushPage(pageno);
+    } catch (IllegalArgumentException exc) {
+      // already written out
+    }
+  }
+
+  /**
+   * Gets the id of the space-map page holding the bits of the given range
+   * of BITS_PER_PAGE pages: one of the pages following the first page for
+   * the ranges the file was created with, and the range's own first page
+   * for the ranges added by growing it.
+   */
+  protected int map_page_id(int range) {
+    return (range < base_map_pages) ? 1 + range : range * BITS_PER_PAGE;
+  }
 
   /**
    * Deallocates a single page (i.e. run size 1) on disk.
@@ -292,7 +660,7 @@ public class DiskMgr implements GlobalConst {
    * @param run_size number of pages to deallocate
    * @throws IllegalArgumentException if firstid or run_size is invalid
    */
-  public void deallocate_page(PageId firstid, int run_size) {
+  public synchronized void deallocate_page(PageId firstid, int run_size) {
 
     // validate the page id
     if ((firstid.pid < 0) || (firstid.pid >= num_pages)) {
@@ -301,7 +669,7 @@ public class DiskMgr implements GlobalConst {
     }
 
     // validate the run size
-    if (run_size < 1) {
+    if ((run_size < 1) || (firstid.pid + run_size > num_pages)) {
       throw new IllegalArgumentException("Invalid run size; deallocate aborted");
     }
 
@@ -324,17 +692,74 @@ public class DiskMgr implements GlobalConst {
       throw new IllegalArgumentException("Invalid page number; read aborted");
     }
 
-    // seek to the correct page on disk and read it
+    // read the page at its position straight into the page's buffer, which
+    // may be off-heap, without moving the channel's position
+    ByteBuffer buf = page.getBuffer().duplicate();
+    buf.clear();
+    if (maps != null) {
+      buf.put(map_slice(pageno.pid));
+      read_cnt.incrementAndGet();
+      return;
+    }
+    long offset = (long) pageno.pid * PAGE_SIZE;
     try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.read(page.getData());
-      read_cnt++;
+      while (buf.hasRemaining() && (channel.read(buf, offset + buf.position()) >= 0)) {
+        // keep reading until the page is full or the file ends
+      }
+      read_cnt.incrementAndGet();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
   } // public void read_page(PageId pageno, Page page)
 
+  /**
+   * Reads a run of consecutive pages from disk with one scattering read.
+   *
+   * @param firstid identifies the first page to read
+   * @param pages output param to hold the contents of the pages, in order
+   * @throws IllegalArgumentException if the run is invalid
+   */
+  public void read_pages(PageId firstid, Page... pages) {
+
+    // validate the run
+    if ((firstid.pid < 0) || (firstid.pid + pages.length > num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; read aborted");
+    }
+
+    // copy each page out of the mappings, if there are any
+    if (maps != null) {
+      for (int i = 0; i < pages.length; i++) {
+        ByteBuffer buf = pages[i].getBuffer().duplicate();
+        buf.clear();
+        buf.put(map_slice(firstid.pid + i));
+      }
+      read_cnt.addAndGet(pages.length);
+      return;
+    }
+
+    // scatter into the page buffers, which may be off-heap
+    ByteBuffer[] bufs = new ByteBuffer[pages.length];
+    for (int i = 0; i < pages.length; i++) {
+      bufs[i] = pages[i].getBuffer().duplicate();
+      bufs[i].clear();
+    }
+
+    // seek to the first page and read the whole run
+    try {
+      synchronized (io_latch) {
+        channel.position((long) firstid.pid * PAGE_SIZE);
+        while (bufs[bufs.length - 1].hasRemaining() && (channel.read(bufs) >= 0)) {
+          // keep reading until the pages are full or the file ends
+        }
+        read_cnt.addAndGet(pages.length);
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void read_pages(PageId firstid, Page... pages)
+
   /**
    * Writes the contents of the given page to disk.
    *
@@ -349,11 +774,21 @@ public class DiskMgr implements GlobalConst {
       throw new IllegalArgumentException("Invalid page number; write aborted");
     }
 
-    // seek to the correct page on disk and write it
+    // write the page at its position straight from the page's buffer, which
+    // may be off-heap, without moving the channel's position
+    ByteBuffer buf = page.getBuffer().duplicate();
+    buf.clear();
+    if (maps != null) {
+      map_slice(pageno.pid).put(buf);
+      write_cnt.incrementAndGet();
+      return;
+    }
+    long offset = (long) pageno.pid * PAGE_SIZE;
     try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.write(page.getData());
-      write_cnt++;
+      while (buf.hasRemaining()) {
+        channel.write(buf, offset + buf.position());
+      }
+      write_cnt.incrementAndGet();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
@@ -361,31 +796,259 @@ public class DiskMgr implements GlobalConst {
   } // public void write_page(PageId pageno, Page page)
 
   /**
-   * Adds a file entry to the header page(s); each entry contains the name of
-   * the file and the PageId of the file's first page.
+   * Writes a run of consecutive pages to disk with one gathering write.
    *
-   * @throws IllegalArgumentException if fname or start_pageno is invalid
+   * @param firstid identifies the first page to write
+   * @param pages holds the contents of the pages, in page order
+   * @throws IllegalArgumentException if the run is invalid
    */
-  public void add_file_entry(String fname, PageId start_pageno) {
+  public void write_pages(PageId firstid, Page... pages) {
 
-    // validate the arguments
-    if (fname.length() > NAME_MAXLEN) {
-      throw new IllegalArgumentException("Filename too long; add entry aborted");
+    // validate the run
+    if ((firstid.pid < 0) || (firstid.pid + pages.length > num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
     }
-    if ((start_pageno.pid < 0) || (start_pageno.pid >= num_pages)) {
-      throw new IllegalArgumentException(
-          "Invalid page number; add entry aborted");
+
+    // copy each page into the mappings, if there are any
+    if (maps != null) {
+      for (int i = 0; i < pages.length; i++) {
+        ByteBuffer buf = pages[i].getBuffer().duplicate();
+        buf.clear();
+        map_slice(firstid.pid + i).put(buf);
+      }
+      write_cnt.addAndGet(pages.length);
+      return;
     }
 
-    // does the file already exist?
-    if (get_file_entry(fname) != null) {
-      throw new IllegalArgumentException(
-          "File entry already exists; add entry aborted");
+    // gather the page buffers, which may be off-heap
+    ByteBuffer[] bufs = new ByteBuffer[pages.length];
+    long remaining = 0;
+    for (int i = 0; i < pages.length; i++) {
+      bufs[i] = pages[i].getBuffer().duplicate();
+      bufs[i].clear();
+      remaining += PAGE_SIZE;
+    }
+
+    // seek to the first page and write the whole run
+    try {
+      synchronized (io_latch) {
+        channel.position((long) firstid.pid * PAGE_SIZE);
+        while (remaining > 0) {
+          remaining -= channel.write(bufs);
+        }
+        write_cnt.addAndGet(pages.length);
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void write_pages(PageId firstid, Page... pages)
+
+  /**
+   * Reads a page like read_page(), but on one of the I/O threads, returning
+   * at once unless queue depth transfers are already in flight, in which
+   * case it waits for one of them to finish. The page must be left alone
+   * until the future completes.
+   *
+   * @param pageno identifies the page to read
+   * @param page output param to hold the contents of the page
+   * @return a future completed once the page has been read
+   * @throws IllegalArgumentException if pageno is invalid
+   */
+  public CompletableFuture<Void> readPageAsync(PageId pageno, final Page page) {
+
+    // validate the page id now, so the caller hears of it
+    if ((pageno.pid < 0) || (pageno.pid >= num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; read aborted");
+    }
+    final PageId target = new PageId(pageno.pid);
+    return submit(new Runnable() {
+      public void run() {
+        read_page(target, page);
+      }
+    });
+
+  } // public CompletableFuture<Void> readPageAsync(PageId pageno, final Page page)
+
+  /**
+   * Writes a page like write_page(), but on one of the I/O threads; see
+   * readPageAsync().
+   *
+   * @param pageno identifies the page to write
+   * @param page holds the contents of the page
+   * @return a future completed once the page has been written
+   * @throws IllegalArgumentException if pageno is invalid
+   */
+  public CompletableFuture<Void> writePageAsync(PageId pageno, final Page page) {
+
+    // validate the page id now, so the caller hears of it
+    if ((pageno.pid < 0) || (pageno.pid >= num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
+    }
+    final PageId target = new PageId(pageno.pid);
+    return submit(new Runnable() {
+      public void run() {
+        write_page(target, page);
+      }
+    });
+
+  } // public CompletableFuture<Void> writePageAsync(PageId pageno, final Page page)
+
+  /**
+   * Writes a run of consecutive pages like write_pages(), but on one of the
+   * I/O threads, as a single transfer; see readPageAsync().
+   *
+   * @param firstid identifies the first page to write
+   * @param pages holds the contents of the pages, in page order
+   * @return a future completed once the pages have been written
+   * @throws IllegalArgumentException if the run is invalid
+   */
+  public CompletableFuture<Void> writePagesAsync(PageId firstid, final Page... pages) {
+
+    // validate the run now, so the caller hears of it
+    if ((firstid.pid < 0) || (firstid.pid + pages.length > num_pages)) {
+      throw new IllegalArgumentException("Invalid page number; write aborted");
+    }
+    final PageId target = new PageId(firstid.pid);
+    return submit(new Runnable() {
+      public void run() {
+        write_pages(target, pages);
+      }
+    });
+
+  } // public CompletableFuture<Void> writePagesAsync(PageId firstid, final Page... pages)
+
+  /**
+   * Sets the number of asynchronous transfers that may be in flight at
+   * once, which is also the number of I/O threads. Transfers already queued
+   * finish on the old threads.
+   *
+   * @throws IllegalArgumentException if depth is not positive
+   */
+  public void setQueueDepth(int depth) {
+
+    if (depth < 1) {
+      throw new IllegalArgumentException("Invalid queue depth: " + depth);
+    }
+    synchronized (pool_latch) {
+      queue_depth = depth;
+      if (io_pool != null) {
+        io_pool.shutdown();
+        io_pool = null;
+        io_slots = null;
+      }
+    }
+
+  } // public void setQueueDepth(int depth)
+
+  /**
+   * Gets the number of asynchronous transfers that may be in flight at once.
+   */
+  public int getQueueDepth() {
+    synchronized (pool_latch) {
+      return queue_depth;
+    }
+  }
+
+  /**
+   * Runs a transfer on the I/O threads once a slot in the queue is free.
+   *
+   * @return a future completed with the transfer, exceptionally if it threw
+   */
+  protected CompletableFuture<Void> submit(final Runnable transfer) {
+
+    // start the threads if needed, and take a slot
+    final Semaphore slots;
+    synchronized (pool_latch) {
+      if (io_pool == null) {
+        io_pool = Executors.newFixedThreadPool(queue_depth, new ThreadFactory() {
+          public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "Minibase I/O");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+        io_slots = new Semaphore(queue_depth);
+      }
+      slots = io_slots;
+    }
+    slots.acquireUninterruptibly();
+
+    // free the slot before completing, so that whatever runs on completion
+    // may start transfers of its own
+    final CompletableFuture<Void> done = new CompletableFuture<Void>();
+    Runnable task = new Runnable() {
+      public void run() {
+        Throwable failure = null;
+        try {
+          transfer.run();
+        } catch (Throwable exc) {
+          failure = exc;
+        } finally {
+          slots.release();
+        }
+        if (failure == null) {
+          done.complete(null);
+        } else {
+          done.completeExceptionally(failure);
+        }
+      }
+    };
+    try {
+      synchronized (pool_latch) {
+        if (io_pool == null) {
+          throw new RejectedExecutionException("I/O threads stopped");
+        }
+        io_pool.execute(task);
+      }
+    } catch (RejectedExecutionException exc) {
+      // stopped meanwhile; the transfer is still owed, so do it here
+      task.run();
+    }
+    return done;
+
+  } // protected CompletableFuture<Void> submit(final Runnable transfer)
+
+  /**
+   * Waits for the asynchronous transfers in flight and stops the I/O
+   * threads; they are started again by the next transfer.
+   */
+  protected void stop_io() {
+
+    ExecutorService pool;
+    synchronized (pool_latch) {
+      pool = io_pool;
+      io_pool = null;
+      io_slots = null;
+    }
+    if (pool == null) {
+      return;
+    }
+    pool.shutdown();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (pool.awaitTermination(1, TimeUnit.SECONDS)) {
+          break;
+        }
+      } catch (InterruptedException exc) {
+        interrupted = true;
+      }
     }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+  } // protected void stop_io()
+
+  /**
+   * Loads the file library into memory from the chain of header pages.
+   */
+  protected synchronized void init_file_index() {
+
+    file_index = new HashMap<String, FileEntry>();
+    free_slots = new TreeSet<Long>();
 
-    // search the header pages for the entry slot
-    boolean found = false;
-    int free_slot = 0;
     DBHeaderPage hpage = new DBHeaderPage();
     PageId hpid = new PageId();
     PageId tmppid = new PageId();
@@ -396,43 +1059,84 @@ public class DiskMgr implements GlobalConst {
       hpid.pid = nexthpid.pid;
       Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
       nexthpid = hpage.getNextPage();
+      last_hpid = hpid.pid;
 
-      // search the header page for an empty entry
-      int entry = 0;
-      while (entry < hpage.getNumOfEntries()) {
-        hpage.getFileEntry(tmppid, entry);
+      // index the used entries and note the empty ones
+      for (int entry = 0; entry < hpage.getNumOfEntries(); entry++) {
+        String tmpname = hpage.getFileEntry(tmppid, entry);
         if (tmppid.pid == INVALID_PAGEID) {
-          break;
+          free_slots.add(((long) hpid.pid << 32) | entry);
+        } else {
+          file_index.put(file_key(tmpname), new FileEntry(hpid.pid, entry, tmppid.pid));
         }
-        entry++;
       }
 
-      // verify an empty slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        free_slot = entry;
-        found = true;
-      } else if (nexthpid.pid != INVALID_PAGEID) {
-        // unpin before continuing loop
-        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-      }
+      Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN, PRIORITY_KEEP);
+
+    } while (nexthpid.pid != INVALID_PAGEID);
+
+  } // protected void init_file_index()
+
+  /**
+   * Gets the key of a file name in the file index; names are compared
+   * ignoring case.
+   */
+  protected static String file_key(String fname) {
+    return fname.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Adds a file entry to the header page(s); each entry contains the name of
+   * the file and the PageId of the file's first page.
+   *
+   * @throws IllegalArgumentException if fname or start_pageno is invalid
+   */
+  public synchronized void add_file_entry(String fname, PageId start_pageno) {
+
+    // validate the arguments
+    if (fname.length() > NAME_MAXLEN) {
+      throw new IllegalArgumentException("Filename too long; add entry aborted");
+    }
+    if ((start_pageno.pid < 0) || (start_pageno.pid >= num_pages)) {
+      throw new IllegalArgumentException(
+          "Invalid page number; add entry aborted");
+    }
 
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
+    // does the file already exist?
+    if (file_index.containsKey(file_key(fname))) {
+      throw new IllegalArgumentException(
+          "File entry already exists; add entry aborted");
+    }
 
-    // if necessary (and possible), add a new header page
-    if (!found) {
+    // take the lowest empty slot, if any
+    DBHeaderPage hpage = new DBHeaderPage();
+    PageId hpid = new PageId();
+    int free_slot;
+    Long slot = free_slots.pollFirst();
+    if (slot != null) {
+      hpid.pid = (int) (slot >>> 32);
+      free_slot = (int) (long) slot;
+      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+    } else {
 
       // allocate the new header page
-      nexthpid = allocate_page();
+      PageId nexthpid = allocate_page();
 
-      // set the next-page pointer on the previous directory page
+      // set the next-page pointer on the last directory page
+      hpid.pid = last_hpid;
+      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
       hpage.setNextPage(nexthpid);
-      Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+      Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY, PRIORITY_KEEP);
 
       // pin the newly-allocated directory page
       hpid.pid = nexthpid.pid;
       Minibase.BufferManager.pinPage(hpid, hpage, PIN_MEMCPY);
       hpage.initDefaults();
+      last_hpid = hpid.pid;
       free_slot = 0;
+      for (int entry = 1; entry < hpage.getNumOfEntries(); entry++) {
+        free_slots.add(((long) hpid.pid << 32) | entry);
+      }
 
     } // if new header page
 
@@ -440,7 +1144,8 @@ public class DiskMgr implements GlobalConst {
     // slot; "hpage" has the directory_page pointer; "free_slot" is the entry
     // number in the directory where we're going to put the new file entry.
     hpage.setFileEntry(fname, start_pageno, free_slot);
-    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY, PRIORITY_KEEP);
+    file_index.put(file_key(fname), new FileEntry(hpid.pid, free_slot, start_pageno.pid));
 
   } // public void add_file_entry(String fname, PageId start_pageno)
 
@@ -449,55 +1154,23 @@ public class DiskMgr implements GlobalConst {
    *
    * @throws IllegalArgumentException if fname is invalid
    */
-  public void delete_file_entry(String fname) {
+  public synchronized void delete_file_entry(String fname) {
 
     // does the file really exist?
-    if (get_file_entry(fname) == null) {
+    FileEntry entry = file_index.remove(file_key(fname));
+    if (entry == null) {
       throw new IllegalArgumentException(
           "File entry not found; delete entry aborted");
     }
 
-    // search the header pages for the entry slot
-    boolean found = false;
-    int slot = 0;
-    DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(0);
-    do {
-
-      // pin the next header page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the header page for an the entry
-      int entry = 0;
-      String tmpname = null;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
-        }
-        entry++;
-      }
-
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
-      } else {
-        // unpin before continuing loop
-        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-      }
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
     // have to delete record at hpnum:slot
-    tmppid.pid = INVALID_PAGEID;
-    hpage.setFileEntry("\0", tmppid, slot);
-    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+    DBHeaderPage hpage = new DBHeaderPage();
+    PageId hpid = new PageId(entry.hpid);
+    PageId tmppid = new PageId(INVALID_PAGEID);
+    Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+    hpage.setFileEntry("\0", tmppid, entry.slot);
+    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY, PRIORITY_KEEP);
+    free_slots.add(((long) entry.hpid << 32) | entry.slot);
 
   } // public void delete_file_entry(String fname)
 
@@ -506,62 +1179,16 @@ public class DiskMgr implements GlobalConst {
    *
    * @return PageId of the file's first page, or null if the file doesn't exist
    */
-  public PageId get_file_entry(String fname) {
-
-    // search the header pages for the entry slot
-    boolean found = false;
-    int slot = 0;
-    DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(0);
-    do {
-
-      // pin the next header page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the header page for an the entry
-      int entry = 0;
-      String tmpname;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
-        }
-        entry++;
-      }
-
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
-      }
-
-      // unpin the page before continuing or exiting loop
-      Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
-    // return null if not found
-    if (!found) {
-      return null;
-    }
-
-    // otherwise, return the first page id
-    PageId startpid = new PageId();
-    hpage.getFileEntry(startpid, slot);
-    return startpid;
-
-  } // public PageId get_file_entry(String fname)
+  public synchronized PageId get_file_entry(String fname) {
+    FileEntry entry = file_index.get(file_key(fname));
+    return (entry == null) ? null : new PageId(entry.start);
+  }
 
   /**
    * Print out the database's space map, a bitmap showing which pages are
    * currently allocated.
    */
-  public void print_space_map() {
+  public synchronized void print_space_map() {
 
     int num_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
     int bit_number = 0;
@@ -573,7 +1200,7 @@ public class DiskMgr implements GlobalConst {
     for (int i = 0; i < num_map_pages; i++) { // start forloop01
 
       // pin the space-map page
-      pgid.pid = 1 + i; // space map starts at page1
+      pgid.pid = map_page_id(i);
       Page apage = new Page();
       Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
 
@@ -591,14 +1218,13 @@ public class DiskMgr implements GlobalConst {
       // length. The outer loop steps through the page's bytes, the inner
       // one steps through each byte's bits.
       int pgptr = 0;
-      byte[] pagebuf = apage.getData();
       int mask;
       for (; num_bits_this_page > 0; pgptr++) { // start forloop02
 
         for (mask = 1; mask < 256 && num_bits_this_page > 0; mask = (mask << 1), --num_bits_this_page, ++bit_number) {
           // start forloop03
 
-          int bit = pagebuf[pgptr] & mask;
+          int bit = apage.getByteValue(pgptr) & mask;
           if ((bit_number % 10) == 0) {
             if ((bit_number % 50) == 0) {
               if (bit_number > 0) {
@@ -620,7 +1246,7 @@ public class DiskMgr implements GlobalConst {
 
       } // end of forloop02
 
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN, PRIORITY_KEEP);
 
     } // end of forloop01
 
@@ -629,69 +1255,218 @@ public class DiskMgr implements GlobalConst {
   } // public void print_space_map()
 
   /**
-   * Sets 'run_size' bits in the space map to the given value, starting from
-   * 'start_page'.
+   * Loads the in-memory space map from the space-map pages, or starts it
+   * empty for a database being created.
+   *
+   * @param load If the space-map pages exist and should be read
+   */
+  protected synchronized void init_space_map(boolean load) {
+
+    space_map = new long[(num_pages + 63) / 64];
+    alloc_cnt = 0;
+    next_fit = 0;
+    free_extents = new TreeMap<Integer, Integer>();
+    free_sizes = new TreeSet<Long>();
+    if (!load) {
+      add_free(0, num_pages - 1);
+      return;
+    }
+
+    // read each space-map page a word at a time; the bits of a byte are
+    // pages in ascending order, so the words are little-endian
+    int num_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    int words_per_page = PAGE_SIZE / 8;
+    PageId pgid = new PageId();
+    Page apage = new Page();
+    for (int i = 0; i < num_map_pages; i++) {
+      pgid.pid = map_page_id(i);
+      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
+      ByteBuffer buf = apage.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      int words = Math.min(words_per_page, space_map.length - i * words_per_page);
+      for (int w = 0; w < words; w++) {
+        space_map[i * words_per_page + w] = buf.getLong(w * 8);
+      }
+      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN, PRIORITY_KEEP);
+    }
+
+    // only count the bits of pages that exist
+    if ((num_pages % 64) != 0) {
+      space_map[space_map.length - 1] &= (1L << (num_pages % 64)) - 1;
+    }
+    for (long word : space_map) {
+      alloc_cnt += Long.bitCount(word);
+    }
+
+    // index the free runs
+    int free = next_bit(0, num_pages, false);
+    while (free != -1) {
+      int used = next_bit(free, num_pages, true);
+      int end = (used == -1) ? num_pages : used;
+      add_free(free, end - 1);
+      free = next_bit(end, num_pages, false);
+    }
+
+  } // protected void init_space_map(boolean load)
+
+  /**
+   * Adds the pages first to last to the free extents, merging them with any
+   * free extents they overlap or touch.
    */
-  protected void set_bits(PageId start_page, int run_size, int bit) {
+  protected void add_free(int first, int last) {
 
-    // locate the run within the space map
-    int first_map_page = start_page.pid / BITS_PER_PAGE + 1;
-    int last_map_page = (start_page.pid + run_size - 1) / BITS_PER_PAGE + 1;
-    int first_bit_no = start_page.pid % BITS_PER_PAGE;
+    Map.Entry<Integer, Integer> left = free_extents.floorEntry(first);
+    if ((left != null) && (left.getKey() + left.getValue() >= first)) {
+      first = left.getKey();
+      last = Math.max(last, left.getKey() + left.getValue() - 1);
+      remove_extent(left.getKey(), left.getValue());
+    }
+    Map.Entry<Integer, Integer> right = free_extents.ceilingEntry(first);
+    while ((right != null) && (right.getKey() <= last + 1)) {
+      last = Math.max(last, right.getKey() + right.getValue() - 1);
+      remove_extent(right.getKey(), right.getValue());
+      right = free_extents.ceilingEntry(first);
+    }
+    free_extents.put(first, last - first + 1);
+    free_sizes.add(((long) (last - first + 1) << 32) | first);
 
-    // the outer loop goes over all space-map pages we need to touch
-    for (PageId pgid = new PageId(first_map_page); pgid.pid <= last_map_page; pgid.pid = pgid.pid + 1, first_bit_no = 0) {
-      // Start forloop01
+  } // protected void add_free(int first, int last)
 
-      // pin the space-map page
-      Page pg = new Page();
-      Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
-      byte[] pgbuf = pg.getData();
+  /**
+   * Takes the pages first to last out of the free extents, keeping the
+   * pieces of any extent they split.
+   */
+  protected void remove_free(int first, int last) {
 
-      // locate the piece of the run that fits on this page
-      int first_byte_no = first_bit_no / 8;
-      int first_bit_offset = first_bit_no % 8;
-      int last_bit_no = first_bit_no + run_size - 1;
+    Map.Entry<Integer, Integer> extent = free_extents.floorEntry(first);
+    if ((extent == null) || (extent.getKey() + extent.getValue() <= first)) {
+      extent = free_extents.higherEntry(first);
+    }
+    while ((extent != null) && (extent.getKey() <= last)) {
+      int start = extent.getKey();
+      int end = start + extent.getValue() - 1;
+      remove_extent(start, extent.getValue());
+      if (start < first) {
+        free_extents.put(start, first - start);
+        free_sizes.add(((long) (first - start) << 32) | start);
+      }
+      if (end > last) {
+        free_extents.put(last + 1, end - last);
+        free_sizes.add(((long) (end - last) << 32) | (last + 1));
+      }
+      extent = free_extents.higherEntry(end);
+    }
+
+  } // protected void remove_free(int first, int last)
+
+  /**
+   * Drops one free extent from both indexes.
+   */
+  private void remove_extent(int start, int length) {
+    free_extents.remove(start);
+    free_sizes.remove(((long) length << 32) | start);
+  }
+
+  /**
+   * Finds the first run of run_size free pages starting at or after from
+   * and ending before to, skipping full words of the space map at a time.
+   *
+   * @return the first page of the run, or -1 if there is none
+   */
+  protected int find_run(int from, int to, int run_size) {
 
-      if (last_bit_no >= BITS_PER_PAGE) {
-        last_bit_no = BITS_PER_PAGE - 1;
+    int pid = from;
+    while (pid + run_size <= to) {
+      int free = next_bit(pid, to, false);
+      if ((free == -1) || (free + run_size > to)) {
+        return -1;
       }
+      int used = next_bit(free, free + run_size, true);
+      if (used == -1) {
+        return free;
+      }
+      pid = used + 1;
+    }
+    return -1;
 
-      int last_byte_no = last_bit_no / 8;
+  } // protected int find_run(int from, int to, int run_size)
 
-      // this loop actually flips the bits on the current page
-      int cur_posi = first_byte_no;
-      for (; cur_posi <= last_byte_no; ++cur_posi, first_bit_offset = 0) {
-        // start forloop02
+  /**
+   * Finds the first page from 'from' up to but not including 'to' whose
+   * bit in the space map is set, or clear if set is false.
+   *
+   * @return the page, or -1 if there is none
+   */
+  protected int next_bit(int from, int to, boolean set) {
 
-        int max_bits_this_byte = 8 - first_bit_offset;
-        int num_bits_this_byte = (run_size > max_bits_this_byte ? max_bits_this_byte
-            : run_size);
+    if (from >= to) {
+      return -1;
+    }
+    int w = from >>> 6;
+    long word = (set ? space_map[w] : ~space_map[w]) & (-1L << from);
+    while (true) {
+      if (word != 0) {
+        int pid = (w << 6) + Long.numberOfTrailingZeros(word);
+        return (pid < to) ? pid : -1;
+      }
+      if (++w > ((to - 1) >>> 6)) {
+        return -1;
+      }
+      word = set ? space_map[w] : ~space_map[w];
+    }
 
-        int imask = 1;
-        int temp;
-        imask = ((imask << num_bits_this_byte) - 1) << first_bit_offset;
-        Integer intmask = new Integer(imask);
-        Byte mask = new Byte(intmask.byteValue());
-        byte bytemask = mask.byteValue();
+  } // protected int next_bit(int from, int to, boolean set)
 
-        if (bit == 1) {
-          temp = (pgbuf[cur_posi] | bytemask);
-          intmask = new Integer(temp);
-          pgbuf[cur_posi] = intmask.byteValue();
-        } else {
-          temp = pgbuf[cur_posi] & (255 ^ bytemask);
-          intmask = new Integer(temp);
-          pgbuf[cur_posi] = intmask.byteValue();
-        }
-        run_size -= num_bits_this_byte;
+  /**
+   * Sets 'run_size' bits in the space map to the given value, starting from
+   * 'start_page', updates the free extents to match, and writes the changed
+   * bytes through to the space-map pages.
+   */
+  protected synchronized void set_bits(PageId start_page, int run_size, int bit) {
+
+    // update the in-memory map a word at a time, counting the bits that
+    // actually change
+    int first = start_page.pid;
+    int last = first + run_size - 1;
+    for (int w = first >>> 6; w <= (last >>> 6); w++) {
+      long mask = -1L;
+      if (w == (first >>> 6)) {
+        mask &= -1L << first;
+      }
+      if (w == (last >>> 6)) {
+        mask &= -1L >>> (63 - (last & 63));
+      }
+      long old = space_map[w];
+      space_map[w] = (bit == 1) ? (old | mask) : (old & ~mask);
+      alloc_cnt += Long.bitCount(space_map[w]) - Long.bitCount(old);
+    }
+    if (bit == 1) {
+      remove_free(first, last);
+    } else {
+      add_free(first, last);
+    }
 
-      } // end of forloop02
+    // copy the changed bytes to each space-map page the run touches
+    Page pg = new Page();
+    PageId pgid = new PageId();
+    for (int range = first / BITS_PER_PAGE; range <= last / BITS_PER_PAGE; range++) {
+
+      // pin the space-map page
+      pgid.pid = map_page_id(range);
+      Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
+
+      // locate the piece of the run that fits on this page
+      int page_first = range * BITS_PER_PAGE;
+      int first_byte = (Math.max(first, page_first) - page_first) / 8;
+      int last_byte = (Math.min(last, page_first + BITS_PER_PAGE - 1) - page_first) / 8;
+      for (int b = first_byte; b <= last_byte; b++) {
+        int map_byte = page_first / 8 + b;
+        pg.setByteValue((byte) (space_map[map_byte >>> 3] >>> ((map_byte & 7) * 8)), b);
+      }
 
       // unpin the space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_DIRTY);
+      Minibase.BufferManager.unpinPage(pgid, UNPIN_DIRTY, PRIORITY_KEEP);
 
-    } // end of forloop01
+    }
 
   } // protected void set_bits(PageId start_page, int run_size, int bit)
 
@@ -32,7 +32,7 @@ public interface GlobalConst {
   /** Copy the disk page into the frame. */
   public static final int PIN_DISKIO = 11;
 
-  /** Don't copy anything into the frame. */
+  /** Don't copy anything into the frame; it is zeroed instead. */
   public static final int PIN_NOOP = 12;
   
   /** Forces the page to be written to disk when unpinned. */
@@ -41,6 +41,15 @@ public interface GlobalConst {
   /** Optimization to avoid writing to disk when unpinned. */
   public static final boolean UNPIN_CLEAN = false;
 
+  /** Keep the page resident longer than others (e.g. metadata pages). */
+  public static final int PRIORITY_KEEP = 20;
+
+  /** Let the replacement policy treat the page as usual. */
+  public static final int PRIORITY_NORMAL = 21;
+
+  /** The page is not expected to be used again soon. */
+  public static final int PRIORITY_EVICT_SOON = 22;
+
   //
   // Heap File Constants
   //
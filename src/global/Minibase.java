@@ -21,6 +21,56 @@ public class Minibase {
 
   // --------------------------------------------------------------------------
 
+  /**
+   * Optional features of a Minibase instance; each defaults to off, so a new
+   * Options selects the original configuration. The setters return this
+   * object so several can be chained.
+   */
+  public static class Options {
+
+    /** If the buffer pool frames should be off-heap. */
+    protected boolean offheap;
+
+    /**
+     * If an existing database should reload, in the background, the pages that
+     * were resident when it was last closed.
+     */
+    protected boolean warmup;
+
+    /**
+     * If the data file should be mapped into memory, which suits databases
+     * that fit in RAM.
+     */
+    protected boolean mapped;
+
+    /**
+     * Keeps the buffer pool frames in off-heap memory, or on the heap.
+     */
+    public Options offheap(boolean offheap) {
+      this.offheap = offheap;
+      return this;
+    }
+
+    /**
+     * Warms up the buffer pool when an existing database is opened, or not.
+     */
+    public Options warmup(boolean warmup) {
+      this.warmup = warmup;
+      return this;
+    }
+
+    /**
+     * Accesses the data file through memory mappings, or through its channel.
+     */
+    public Options mapped(boolean mapped) {
+      this.mapped = mapped;
+      return this;
+    }
+
+  } // public static class Options
+
+  // --------------------------------------------------------------------------
+
   /**
    * Constructs and starts an instance of Minibase, given the configuration.
    *
@@ -38,6 +88,20 @@ public class Minibase {
 
   } // constructor
 
+  /**
+   * Constructs and starts an instance of Minibase, given the configuration
+   * and its optional features.
+   *
+   * @param options Optional features to enable
+   */
+  public Minibase(String dbname, int num_pgs, int bufpoolsize,
+      String replacement_policy, boolean exists, Options options) {
+
+    // simply initialize the database
+    init(dbname, num_pgs, bufpoolsize, replacement_policy, exists, options);
+
+  } // constructor
+
   /**
    * Initializes the current instance of Minibase with the given configuration.
    *
@@ -49,14 +113,28 @@ public class Minibase {
    */
   public void init(String dbname, int num_pgs, int bufpoolsize,
       String replacement_policy, boolean exists) {
+    init(dbname, num_pgs, bufpoolsize, replacement_policy, exists,
+        new Options());
+  }
+
+  /**
+   * Initializes the current instance of Minibase with the given configuration
+   * and its optional features.
+   *
+   * @param options Optional features to enable
+   */
+  public void init(String dbname, int num_pgs, int bufpoolsize,
+      String replacement_policy, boolean exists, Options options) {
 
     // save the file name
     DatabaseName = dbname;
 
     // load the static layers
     try {
-      DiskManager = new DiskMgr();
-      BufferManager = new BufMgr(bufpoolsize);
+      DiskManager = new DiskMgr(options.mapped);
+      BufferManager = new BufMgr(bufpoolsize, replacement_policy,
+          options.offheap);
+      BufferManager.registerMBean();
     } catch (Exception exc) {
       haltSystem(exc);
     }
@@ -64,7 +142,7 @@ public class Minibase {
     // create or open the database
     try {
       if (exists) {
-        DiskManager.openDB(dbname);
+        DiskManager.openDB(dbname, options.warmup);
       } else {
         DiskManager.createDB(dbname, num_pgs);
         BufferManager.flushAllPages();
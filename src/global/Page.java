@@ -1,20 +1,43 @@
 package global;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
- * Image of a disk page in memory.
+ * Image of a disk page in memory. The contents live in a ByteBuffer, which
+ * either wraps a byte array on the heap or views a slice of off-heap memory
+ * (see BufMgr); only the former has a data array.
  */
 public class Page implements GlobalConst {
 
-  /** The actual byte array for the page. */
+  /** A blank page, copied into off-heap pages to clear them. */
+  private static final byte[] BLANK = new byte[PAGE_SIZE];
+
+  /** The actual byte array for the page, or null if it is off-heap. */
   protected byte[] data;
 
+  /** The page contents; always PAGE_SIZE bytes, positioned at zero. */
+  protected ByteBuffer buffer;
+
   // --------------------------------------------------------------------------
 
   /**
    * Default constructor; creates a blank page.
    */
   public Page() {
-    data = new byte[PAGE_SIZE];
+    setData(new byte[PAGE_SIZE]);
+  }
+
+  /**
+   * Constructor for subclasses whose pages get their contents from
+   * setPage(), such as pages about to be pinned in the buffer pool: if
+   * allocate is false the page has no contents until then, which saves
+   * allocating a page of memory that the pin would only drop.
+   */
+  protected Page(boolean allocate) {
+    if (allocate) {
+      setData(new byte[PAGE_SIZE]);
+    }
   }
 
   /**
@@ -24,13 +47,50 @@ public class Page implements GlobalConst {
     setData(data);
   }
 
+  /**
+   * Constructor that views the given buffer, which may be direct.
+   */
+  public Page(ByteBuffer buffer) {
+    if (buffer.capacity() != PAGE_SIZE) {
+      Minibase.haltSystem(new IllegalArgumentException(
+          "Invalid page buffer size"));
+    }
+    if (buffer.hasArray() && (buffer.arrayOffset() == 0)
+        && (buffer.array().length == PAGE_SIZE)) {
+      this.data = buffer.array();
+    } else {
+      this.data = null;
+    }
+    this.buffer = buffer;
+  }
+
+  /**
+   * Constructor that shares the given page's contents.
+   */
+  public Page(Page page) {
+    setPage(page);
+  }
+
   /**
    * Get accessor for the data byte array.
+   * 
+   * @throws IllegalStateException if the page is off-heap
    */
   public byte[] getData() {
+    if (data == null) {
+      throw new IllegalStateException("Page is not backed by a byte array");
+    }
     return data;
   }
 
+  /**
+   * Get accessor for the page buffer. Callers should use absolute gets and
+   * puts, or a duplicate, so the buffer's own position is left alone.
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
   /**
    * Set accessor for the data byte array.
    * 
@@ -42,20 +102,100 @@ public class Page implements GlobalConst {
           "Invalid page buffer size"));
     }
     this.data = data;
+    this.buffer = ByteBuffer.wrap(data);
   }
 
   /**
-   * Sets this page's data array to share the given page's data array.
+   * Sets this page's buffer to share the given page's buffer.
    */
   public void setPage(Page page) {
     this.data = page.data;
+    this.buffer = page.buffer;
   }
 
   /**
    * Copies the contents of the given page's buffer into this page's buffer.
    */
   public void copyPage(Page page) {
-    System.arraycopy(page.data, 0, this.data, 0, PAGE_SIZE);
+    if ((this.data != null) && (page.data != null)) {
+      System.arraycopy(page.data, 0, this.data, 0, PAGE_SIZE);
+    } else {
+      ByteBuffer src = page.buffer.duplicate();
+      ByteBuffer dst = this.buffer.duplicate();
+      src.clear();
+      dst.clear();
+      dst.put(src);
+    }
+  }
+
+  /**
+   * Sets every byte of this page's buffer to zero.
+   */
+  public void clearPage() {
+    if (data != null) {
+      Arrays.fill(data, (byte) 0);
+    } else {
+      ByteBuffer dst = buffer.duplicate();
+      dst.clear();
+      dst.put(BLANK);
+    }
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Copies bytes from the given page offset into an array.
+   */
+  public void getBytes(int offset, byte[] dst, int dstPos, int length) {
+    if (data != null) {
+      System.arraycopy(data, offset, dst, dstPos, length);
+    } else {
+      ByteBuffer src = buffer.duplicate();
+      src.clear();
+      src.position(offset);
+      src.get(dst, dstPos, length);
+    }
+  }
+
+  /**
+   * Copies bytes from an array to the given page offset.
+   */
+  public void setBytes(byte[] src, int srcPos, int offset, int length) {
+    if (data != null) {
+      System.arraycopy(src, srcPos, data, offset, length);
+    } else {
+      ByteBuffer dst = buffer.duplicate();
+      dst.clear();
+      dst.position(offset);
+      dst.put(src, srcPos, length);
+    }
+  }
+
+  /**
+   * Moves bytes within the page; the ranges may overlap.
+   */
+  public void moveBytes(int srcOffset, int dstOffset, int length) {
+    if (data != null) {
+      System.arraycopy(data, srcOffset, data, dstOffset, length);
+    } else {
+      byte[] tmp = new byte[length];
+      getBytes(srcOffset, tmp, 0, length);
+      setBytes(tmp, 0, dstOffset, length);
+    }
+  }
+
+  /**
+   * Gets a byte at the given page offset.
+   */
+  public byte getByteValue(int offset) {
+    return buffer.get(offset);
+  }
+
+  /**
+   * Sets a byte at the given page offset.
+   */
+  public void setByteValue(byte value, int offset) {
+    buffer.put(offset, value);
   }
 
   // --------------------------------------------------------------------------
@@ -64,70 +204,77 @@ public class Page implements GlobalConst {
    * Gets a char at the given page offset.
    */
   public char getCharValue(int offset) {
-    return Convert.getCharValue(offset, data);
+    return (char) buffer.get(offset);
   }
 
   /**
    * Sets a char at the given page offset.
    */
   public void setCharValue(char value, int offset) {
-    Convert.setCharValue(value, offset, data);
+    buffer.put(offset, (byte) value);
   }
 
   /**
    * Gets a short at the given page offset.
    */
   public short getShortValue(int offset) {
-    return Convert.getShortValue(offset, data);
+    return buffer.getShort(offset);
   }
 
   /**
    * Sets a short at the given page offset.
    */
   public void setShortValue(short value, int offset) {
-    Convert.setShortValue(value, offset, data);
+    buffer.putShort(offset, value);
   }
 
   /**
    * Gets an int at the given page offset.
    */
   public int getIntValue(int offset) {
-    return Convert.getIntValue(offset, data);
+    return buffer.getInt(offset);
   }
 
   /**
    * Sets an int at the given page offset.
    */
   public void setIntValue(int value, int offset) {
-    Convert.setIntValue(value, offset, data);
+    buffer.putInt(offset, value);
   }
 
   /**
    * Gets a float at the given page offset.
    */
   public float getFloatValue(int offset) {
-    return Convert.getFloatValue(offset, data);
+    return buffer.getFloat(offset);
   }
 
   /**
    * Sets a float at the given page offset.
    */
   public void setFloatValue(float value, int offset) {
-    Convert.setFloatValue(value, offset, data);
+    buffer.putFloat(offset, value);
   }
 
   /**
    * Gets a string at the given page offset, given the maximum length.
    */
   public String getStringValue(int offset, int length) {
-    return Convert.getStringValue(offset, data, length);
+    if (data != null) {
+      return Convert.getStringValue(offset, data, length);
+    }
+    length = Math.min(length, PAGE_SIZE - offset);
+    byte[] bytes = new byte[length];
+    getBytes(offset, bytes, 0, length);
+    return new String(bytes).trim();
   }
 
   /**
    * Sets a string at the given page offset.
    */
   public void setStringValue(String value, int offset) {
-    Convert.setStringValue(value, offset, data);
+    byte[] bytes = value.getBytes();
+    setBytes(bytes, 0, offset, bytes.length);
   }
 
 } // public class Page implements GlobalConst
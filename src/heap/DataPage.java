@@ -1,15 +1,32 @@
 package heap;
 
+import global.Page;
+
 /**
  * A heap file page containing actual data records.
  */
 class DataPage extends HFPage {
 
   /**
-   * Default constructor; creates a data page with default values.
+   * Default constructor; creates a data page with no contents, to be
+   * pinned, or created with BufMgr.newPage() and initialized, before use.
    */
   public DataPage() {
-    super();
+    super(false);
+  }
+
+  /**
+   * Constructor that wraps an existing data page.
+   */
+  public DataPage(Page page) {
+    super(page);
+  }
+
+  /**
+   * Initializes the data page with default values.
+   */
+  protected void initDefaults() {
+    super.initDefaults();
     setType(HeapFile.DATA_PAGE);
   }
   
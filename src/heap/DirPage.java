@@ -34,10 +34,18 @@ class DirPage extends HFPage {
   // --------------------------------------------------------------------------
 
   /**
-   * Default constructor; creates a directory page with default values.
+   * Default constructor; creates a directory page with no contents, to be
+   * pinned, or created with BufMgr.newPage() and initialized, before use.
    */
   public DirPage() {
-    super();
+    super(false);
+  }
+
+  /**
+   * Initializes the directory page with default values.
+   */
+  protected void initDefaults() {
+    super.initDefaults();
     setType(HeapFile.DIR_PAGE);
     setEntryCnt((short) 0);
   }
@@ -108,7 +116,7 @@ class DirPage extends HFPage {
     // shift all bytes to the left
     int entryPos = HEADER_SIZE + slotno * ENTRY_SIZE;
     int succLen = PAGE_SIZE - FOOTER_SIZE - entryPos - ENTRY_SIZE;
-    System.arraycopy(data, entryPos + ENTRY_SIZE, data, entryPos, succLen);
+    moveBytes(entryPos + ENTRY_SIZE, entryPos, succLen);
 
   } // public void compact(int slotno)
 
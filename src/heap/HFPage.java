@@ -56,7 +56,18 @@ class HFPage extends Page {
    * Constructor that wraps an existing heap file page.
    */
   public HFPage(Page page) {
-    super(page.getData());
+    super(page);
+  }
+
+  /**
+   * Constructor for a page that has no contents until it is pinned, or
+   * created with BufMgr.newPage() and initialized.
+   */
+  protected HFPage(boolean allocate) {
+    super(allocate);
+    if (allocate) {
+      initDefaults();
+    }
   }
 
   /**
@@ -218,7 +229,7 @@ class HFPage extends Page {
     int slotpos = HEADER_SIZE + i * SLOT_SIZE;
     setShortValue(recLength, slotpos);
     setShortValue(usedPtr, slotpos + 2);
-    System.arraycopy(record, 0, data, usedPtr, recLength);
+    setBytes(record, 0, usedPtr, recLength);
     return new RID(new PageId(getIntValue(CUR_PAGE)), i);
 
   } // public RID insertRecord(byte[] record)
@@ -236,7 +247,7 @@ class HFPage extends Page {
 
     // finally, get and return the record
     byte[] record = new byte[length];
-    System.arraycopy(data, offset, record, 0, length);
+    getBytes(offset, record, 0, length);
     return record;
 
   } // public byte[] selectRecord(RID rid)
@@ -255,7 +266,7 @@ class HFPage extends Page {
 
     // finally, update the record in place
     short offset = getSlotOffset(rid.slotno);
-    System.arraycopy(record, 0, data, offset, length);
+    setBytes(record, 0, offset, length);
 
   } // public void updateRecord(RID rid, byte[] record)
 
@@ -277,7 +288,7 @@ class HFPage extends Page {
     short size = (short) (offset - usedPtr);
 
     // shift all bytes to the right
-    System.arraycopy(data, usedPtr, data, newSpot, size);
+    moveBytes(usedPtr, newSpot, size);
 
     // adjust offsets of all valid slots that refer
     // to the left of the record being removed
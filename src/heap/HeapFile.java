@@ -1,10 +1,14 @@
 package heap;
 
+import bufmgr.BufferRing;
 import global.GlobalConst;
 import global.Minibase;
+import global.Page;
 import global.PageId;
 import global.RID;
 
+import java.util.function.Function;
+
 /**
  * <h3>Minibase Heap Files</h3> A heap file is an unordered set of records,
  * stored on a set of pages. This class provides basic support for inserting,
@@ -45,10 +49,11 @@ public class HeapFile implements GlobalConst {
 		if (pageId == null) {
 			// Create the head dir and initialize it.
 			DirPage dirPage = new DirPage();
-			pageId = Minibase.BufferManager.newPage(dirPage, 1);
+			pageId = Minibase.BufferManager.newPage(dirPage, 1, PIN_NOOP);
+			dirPage.initDefaults();
 			dirPage.setCurPage(pageId);
 			// unpin it - write it to disk
-			Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
+			Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY, PRIORITY_KEEP);
 			if (!isTemp) {
 				// This is not a temp file, so save the pageId
 				// for future retreival
@@ -71,14 +76,16 @@ public class HeapFile implements GlobalConst {
 	 * Deletes the heap file from the database, freeing all of its pages.
 	 */
 	public void deleteFile() {
-		// Start at the head dir.
+		// Start at the head dir. The dir pages are read once and freed, so
+		// recycle a few private frames instead of flushing the pool.
 		PageId dirId = new PageId(pageId.pid);
 		DirPage dirPage = new DirPage();
+		BufferRing ring = Minibase.BufferManager.newRing(HeapScan.RING_SIZE);
 
 		while (dirId.pid != INVALID_PAGEID) {
 			// Pin current dir page and get the next dir page.
 			PageId curPageId = new PageId(dirId.pid);
-			Minibase.BufferManager.pinPage(curPageId, dirPage, PIN_DISKIO);
+			Minibase.BufferManager.pinPage(curPageId, dirPage, PIN_DISKIO, ring);
 			dirId = dirPage.getNextPage();
 
 			// Go thru each directory entry on the dir page.
@@ -89,7 +96,7 @@ public class HeapFile implements GlobalConst {
 			}
 
 			// Unpin and free the current dir page.
-			Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN);
+			Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN, ring);
 			Minibase.BufferManager.freePage(curPageId);
 		}
 
@@ -151,18 +158,19 @@ public class HeapFile implements GlobalConst {
 			if (rid != null) {
 				// We inserted the record and updated the directory entry so
 				// we need to unpin dirty to write changes and get out.
-				Minibase.BufferManager.unpinPage(curPageId, UNPIN_DIRTY);
+				Minibase.BufferManager.unpinPage(curPageId, UNPIN_DIRTY, PRIORITY_KEEP);
 				break;
 			}
 
 			// didn't find it, so unpin it clean
-			Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN);
+			Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN, PRIORITY_KEEP);
 		} // end of the while loop
 
 		if (rid == null) {
 			// We never found a page to hold the record, so create a new page
 			DataPage dataPage = new DataPage();
-			PageId dataId = Minibase.BufferManager.newPage(dataPage, 1);
+			PageId dataId = Minibase.BufferManager.newPage(dataPage, 1, PIN_NOOP);
+			dataPage.initDefaults();
 			dataPage.setCurPage(dataId);
 			rid = dataPage.insertRecord(record);
 			short slotCount = dataPage.getSlotCount();
@@ -193,13 +201,13 @@ public class HeapFile implements GlobalConst {
 					dirPage.setRecCnt(entryCnt, slotCount);
 					dirPage.setFreeCnt(entryCnt, freeSpace);
 					dirPage.setEntryCnt(++entryCnt);
-					Minibase.BufferManager.unpinPage(curPageId, UNPIN_DIRTY);
+					Minibase.BufferManager.unpinPage(curPageId, UNPIN_DIRTY, PRIORITY_KEEP);
 					addedEntry = true;
 					break;
 				}
 
 				// Still haven't found what we're looking for.
-				Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN);
+				Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN, PRIORITY_KEEP);
 			}
 
 			if (!addedEntry) {
@@ -213,7 +221,8 @@ public class HeapFile implements GlobalConst {
 
 				// Create the new dir page and record the entry
 				DirPage newDirPage = new DirPage();
-				PageId newDirId = Minibase.BufferManager.newPage(newDirPage, 1);
+				PageId newDirId = Minibase.BufferManager.newPage(newDirPage, 1, PIN_NOOP);
+				newDirPage.initDefaults();
 				newDirPage.setCurPage(newDirId);
 				newDirPage.setPageId(0, dataId);
 				newDirPage.setRecCnt(0, slotCount);
@@ -226,8 +235,8 @@ public class HeapFile implements GlobalConst {
 				newDirPage.setPrevPage(curPageId);
 
 				// Unpin both dir pages now that they are modified.
-				Minibase.BufferManager.unpinPage(newDirId, UNPIN_DIRTY);
-				Minibase.BufferManager.unpinPage(curPageId, UNPIN_DIRTY);
+				Minibase.BufferManager.unpinPage(newDirId, UNPIN_DIRTY, PRIORITY_KEEP);
+				Minibase.BufferManager.unpinPage(curPageId, UNPIN_DIRTY, PRIORITY_KEEP);
 			}
 		}
 
@@ -240,21 +249,33 @@ public class HeapFile implements GlobalConst {
 	 * @throws IllegalArgumentException
 	 *             if the rid is invalid
 	 */
-	public byte[] selectRecord(RID rid) {
-		byte[] record;
+	public byte[] selectRecord(final RID rid) {
+		// Try reading the record without pinning the page first
+		byte[] record = Minibase.BufferManager.readOptimistic(rid.pageno,
+				new Function<Page, byte[]>() {
+					public byte[] apply(Page page) {
+						try {
+							return new DataPage(page).selectRecord(rid);
+						} catch (IllegalArgumentException e) {
+							throw new IllegalArgumentException("Invalid rid " + rid, e);
+						}
+					}
+				});
+		if (record != null) {
+			return record;
+		}
+
 		DataPage dataPage = new DataPage();
 		Minibase.BufferManager.pinPage(rid.pageno, dataPage, PIN_DISKIO);
 
 		try {
 			record = dataPage.selectRecord(rid);
-		} catch (Exception e) {
-			// Invalid rid, so unpin and throw exception.
+		} catch (IllegalArgumentException e) {
+			// Invalid rid
+			throw new IllegalArgumentException("Invalid rid " + rid, e);
+		} finally {
 			Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_CLEAN);
-			throw new IllegalArgumentException();
 		}
-
-		// Valid rid, so unpin and return the record.
-		Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_CLEAN);
 		return record;
 	}
 
@@ -351,7 +372,7 @@ public class HeapFile implements GlobalConst {
 							// it is empty, check if head
 							if (curPageId.pid == pageId.pid) {
 								// Unpin the head dir page.
-								Minibase.BufferManager.unpinPage(curPageId, UNPIN_DIRTY);
+								Minibase.BufferManager.unpinPage(curPageId, UNPIN_DIRTY, PRIORITY_KEEP);
 								break;
 							} else {
 								// not the head dirpage, so delete
@@ -372,10 +393,10 @@ public class HeapFile implements GlobalConst {
 									childDirPage.setPrevPage(dirPage.getPrevPage());
 
 									// unpin child page
-									Minibase.BufferManager.unpinPage(dirPage.getNextPage(), UNPIN_DIRTY);
+									Minibase.BufferManager.unpinPage(dirPage.getNextPage(), UNPIN_DIRTY, PRIORITY_KEEP);
 								}
 								// unpin parent page
-								Minibase.BufferManager.unpinPage(dirPage.getPrevPage(), UNPIN_DIRTY);
+								Minibase.BufferManager.unpinPage(dirPage.getPrevPage(), UNPIN_DIRTY, PRIORITY_KEEP);
 
 							}
 
@@ -390,7 +411,7 @@ public class HeapFile implements GlobalConst {
 			}
 
 			// Unpin the current dir page.
-			Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN);
+			Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN, PRIORITY_KEEP);
 		}
 	}
 
@@ -415,7 +436,7 @@ public class HeapFile implements GlobalConst {
 			}
 
 			// Unpin and free the current dir page.
-			Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN);
+			Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN, PRIORITY_KEEP);
 		}
 
 		return count;
@@ -1,5 +1,6 @@
 package heap;
 
+import bufmgr.BufferRing;
 import global.GlobalConst;
 import global.Minibase;
 import global.PageId;
@@ -12,6 +13,12 @@ import global.RID;
  */
 public class HeapScan implements GlobalConst {
 
+  /** Number of frames in the buffer ring used for data pages. */
+  protected static final int RING_SIZE = 16;
+
+  /** Number of data pages to read ahead of the current one. */
+  protected static final int PREFETCH_DEPTH = 4;
+
   /** Currently pinned directory page (outer loop). */
   protected DirPage dirPage;
 
@@ -27,6 +34,12 @@ public class HeapScan implements GlobalConst {
   /** RID of the current record on the data page. */
   protected RID curRid;
 
+  /** Private frames for the data pages, so the scan doesn't flush the pool. */
+  protected BufferRing ring;
+
+  /** Number of data pages actually read ahead; less than the ring's size. */
+  protected int depth;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -44,6 +57,9 @@ public class HeapScan implements GlobalConst {
     index = -1;
     dataPage = null;
     curRid = null;
+    ring = Minibase.BufferManager.newRing(RING_SIZE);
+    depth = Math.min(PREFETCH_DEPTH, ring.getSize() - 1);
+    readAhead();
 
   } // protected HeapScan(HeapFile hf)
 
@@ -67,14 +83,17 @@ public class HeapScan implements GlobalConst {
 
     // unpin the pages where applicable
     if (dataPage != null) {
-      Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
+      Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN, ring);
       dataPage = null;
     }
     if (dirPage != null) {
-      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN);
+      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN, PRIORITY_KEEP);
       dirPage = null;
     }
 
+    // let our read-ahead finish so it doesn't hold on to the ring's frames
+    Minibase.BufferManager.awaitPrefetch(ring);
+
     // invalidate the other fields
     count = -1;
     index = -1;
@@ -131,7 +150,7 @@ public class HeapScan implements GlobalConst {
       } else {
 
         // all done with the current data page
-        Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
+        Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN, ring);
 
       } // else
 
@@ -147,8 +166,11 @@ public class HeapScan implements GlobalConst {
 
       // pin the next data page
       index++;
+      if ((depth > 0) && (index + depth < count)) {
+        Minibase.BufferManager.prefetch(ring, dirPage.getPageId(index + depth));
+      }
       Minibase.BufferManager.pinPage(dirPage.getPageId(index), dataPage,
-          PIN_DISKIO);
+          PIN_DISKIO, ring);
 
       // reset the counter and get the first record
       curRid = dataPage.firstRecord();
@@ -164,13 +186,14 @@ public class HeapScan implements GlobalConst {
 
       // unpin the current dir page, pin the next dir page
       PageId nextId = dirPage.getNextPage();
-      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN);
+      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN, PRIORITY_KEEP);
       Minibase.BufferManager.pinPage(nextId, dirPage, PIN_DISKIO);
 
       // reset the counters and try again
       count = dirPage.getEntryCnt();
       index = -1;
       curRid = null;
+      readAhead();
       return getNext(rid);
 
     } // if more dir pages
@@ -180,4 +203,27 @@ public class HeapScan implements GlobalConst {
 
   } // public byte[] getNext(RID rid)
 
+  /**
+   * Issues read-ahead for the first data pages listed on the current directory
+   * page, and for the next directory page.
+   */
+  protected void readAhead() {
+
+    // the data pages go through the ring, like the pins that will use them;
+    // a small ring leaves a frame for the current page
+    int ahead = Math.min(depth, count);
+    PageId[] pagenos = new PageId[ahead];
+    for (int i = 0; i < ahead; i++) {
+      pagenos[i] = dirPage.getPageId(i);
+    }
+    Minibase.BufferManager.prefetch(ring, pagenos);
+
+    // the directory pages are shared with the rest of the pool
+    PageId nextId = dirPage.getNextPage();
+    if (nextId.pid != INVALID_PAGEID) {
+      Minibase.BufferManager.prefetch(nextId);
+    }
+
+  } // protected void readAhead()
+
 } // public class HeapScan implements GlobalConst
@@ -1,10 +1,28 @@
 package tests;
 
-import global.Convert;
+import bufmgr.BufMgr;
+import bufmgr.BufMgrStats;
+import bufmgr.BufferRing;
+import bufmgr.PageFrameMap;
+import bufmgr.TraceSimulator;
+import diskmgr.DiskMgr;
 import global.Minibase;
 import global.Page;
 import global.PageId;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.management.ObjectName;
+
 /**
  * Test suite for the bufmgr layer.
  */
@@ -14,20 +32,18 @@ class BMTest extends TestDriver {
   private static final String TEST_NAME = "buffer manager tests";
 
   /**
-   * Test application entry point; runs all tests.
+   * Test application entry point; runs all tests under each replacement
+   * policy named on the command line, or all of them, and then once more
+   * with the buffer pool off-heap.
    */
   public static void main(String argv[]) {
 
-    // create a clean Minibase instance
-    BMTest bmt = new BMTest();
-    bmt.create_minibase();
-
-    // run all the test cases
-    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    String[] policies = (argv.length > 0) ? argv : TraceSimulator.POLICIES;
     boolean status = PASS;
-    status &= bmt.test1();
-    status &= bmt.test2();
-    status &= bmt.test3();
+    for (String policy : policies) {
+      status &= runAll(policy, false);
+    }
+    status &= runAll(policies[0], true);
 
     // display the final results
     System.out.println();
@@ -39,6 +55,54 @@ class BMTest extends TestDriver {
 
   } // public static void main (String argv[])
 
+  /**
+   * Runs all tests on a clean Minibase instance with the given buffer pool.
+   */
+  private static boolean runAll(String policy, boolean offheap) {
+
+    // create a clean Minibase instance
+    BMTest bmt = new BMTest();
+    bmt.BUF_POLICY = policy;
+    bmt.BUF_OFFHEAP = offheap;
+    bmt.create_minibase();
+
+    // run all the test cases
+    System.out.println("\n" + "Running " + TEST_NAME + " with " + policy
+        + (offheap ? " off-heap" : "") + "...");
+    boolean status = PASS;
+    status &= bmt.test1();
+    status &= bmt.test2();
+    status &= bmt.test3();
+    status &= bmt.test4();
+    status &= bmt.test5();
+    status &= bmt.test6();
+    status &= bmt.test7();
+    status &= bmt.test8();
+    status &= bmt.test9();
+    status &= bmt.test10();
+    status &= bmt.test11();
+    status &= bmt.test12();
+    status &= bmt.test13();
+    status &= bmt.test14();
+    status &= bmt.test15();
+    status &= bmt.test16();
+    status &= bmt.test17();
+    status &= bmt.test18();
+    status &= bmt.test19();
+    status &= bmt.test20();
+    status &= bmt.test21();
+    status &= bmt.test22();
+    status &= bmt.test23();
+    status &= bmt.test24();
+    status &= bmt.test25();
+    status &= bmt.test26();
+    status &= bmt.test27();
+    status &= bmt.test28();
+    Minibase.DiskManager.closeDB();
+    return status;
+
+  } // private static boolean runAll(String policy, boolean offheap)
+
   /**
    * 
    */
@@ -96,7 +160,7 @@ class BMTest extends TestDriver {
         // unlikely that this bit pattern would show up there by
         // coincidence.
         int data = pid.pid + 99999;
-        Convert.setIntValue(data, 0, pg.getData());
+        pg.setIntValue(data, 0);
 
         if (status == PASS) {
           try {
@@ -129,7 +193,7 @@ class BMTest extends TestDriver {
       if (status == PASS) {
 
         int data = 0;
-        data = Convert.getIntValue(0, pg.getData());
+        data = pg.getIntValue(0);
 
         if (status == PASS) {
           if (data != (pid.pid) + 99999) {
@@ -356,7 +420,7 @@ class BMTest extends TestDriver {
         // coincidence.
         int data = pid.pid + 99999;
 
-        Convert.setIntValue(data, 0, pg.getData());
+        pg.setIntValue(data, 0);
 
         // Leave the page pinned if it equals 12 mod 20. This is a
         // random number based loosely on a bug report.
@@ -390,7 +454,7 @@ class BMTest extends TestDriver {
         if (status == PASS) {
 
           int data = 0;
-          data = Convert.getIntValue(0, pg.getData());
+          data = pg.getIntValue(0);
 
           if (data != pid.pid + 99999) {
             status = FAIL;
@@ -429,4 +493,2197 @@ class BMTest extends TestDriver {
 
   } // protected boolean test3 ()
 
+  /**
+   * 
+   */
+  protected boolean test4() {
+
+    System.out.print("\n  Test 4 pins and unpins resident pages from "
+        + "several threads at once\n");
+
+    final int numThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    final int numPages = BUF_SIZE / 2;
+    final int numRounds = 20000;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+
+    System.out.print("  - Allocate some pages and write their numbers on them\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      pg.setIntValue(pid.pid + 99999, 0);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+
+    System.out.print("  - Pin, check and unpin them from " + numThreads
+        + " threads\n");
+    final int first = firstPid.pid;
+    final boolean[] results = new boolean[numThreads];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        public void run() {
+          boolean ok = PASS;
+          Page page = new Page();
+          PageId pageno = new PageId();
+          try {
+            for (int i = 0; ok == PASS && i < numRounds; i++) {
+              pageno.pid = first + (i * 7 + id) % numPages;
+              Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+              if (page.getIntValue(0) != pageno.pid + 99999) {
+                System.err.print("*** Read wrong data back from page "
+                    + pageno.pid + "\n");
+                ok = FAIL;
+              }
+              Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+            ok = FAIL;
+          }
+          results[id] = ok;
+        }
+      };
+    }
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        status = FAIL;
+      }
+    }
+    long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+    for (boolean result : results) {
+      status &= result;
+    }
+    System.out.print("  - " + (numThreads * numRounds * 1000L / millis)
+        + " pin/unpin pairs per second\n");
+
+    if (status == PASS
+        && Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames()) {
+      status = FAIL;
+      System.err.print("*** Pages were left pinned after the threads finished\n");
+    }
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 4 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test4 ()
+
+  /**
+   * 
+   */
+  protected boolean test5() {
+
+    System.out.print("\n  Test 5 lets the background writer clean "
+        + "dirty pages\n");
+
+    int numPages = BUF_SIZE / 2;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+
+    System.out.print("  - Allocate and dirty some new pages\n");
+    Minibase.BufferManager.flushAllPages();
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      pg.setIntValue(pid.pid + 99999, 0);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+
+    System.out.print("  - Start the writer and wait for it to go quiet\n");
+    int writes = Minibase.DiskManager.getWriteCount();
+    Minibase.BufferManager.startWriter(1, 8, 0.0);
+    for (int i = 0, quiet = 0; i < 500 && quiet < 20; i++) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        break;
+      }
+      int now = Minibase.DiskManager.getWriteCount();
+      quiet = (now == writes) ? quiet + 1 : 0;
+      writes = now;
+    }
+    Minibase.BufferManager.stopWriter();
+
+    if (status == PASS) {
+      System.out.print("  - Check that nothing is left to flush\n");
+      writes = Minibase.DiskManager.getWriteCount();
+      Minibase.BufferManager.flushAllPages();
+      if (Minibase.DiskManager.getWriteCount() != writes) {
+        status = FAIL;
+        System.err.print("*** Dirty pages were left behind\n");
+      }
+    }
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 5 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test5 ()
+
+  /**
+   * 
+   */
+  protected boolean test6() {
+
+    System.out.print("\n  Test 6 prefetches pages that are not in the "
+        + "buffer pool\n");
+
+    int numPages = BUF_SIZE / 5;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+
+    System.out.print("  - Allocate a run of new pages\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    // only the first page of the run has been brought in
+    System.out.print("  - Prefetch the rest of the run\n");
+    PageId[] pids = new PageId[numPages - 1];
+    for (int i = 0; i < pids.length; i++) {
+      pids[i] = new PageId(firstPid.pid + 1 + i);
+    }
+    int reads = Minibase.DiskManager.getReadCount();
+    Minibase.BufferManager.prefetch(pids);
+    Minibase.BufferManager.prefetch(pids);
+    Minibase.BufferManager.awaitPrefetch();
+    if (Minibase.DiskManager.getReadCount() - reads != pids.length) {
+      status = FAIL;
+      System.err.print("*** Prefetch read " + (Minibase.DiskManager.getReadCount() - reads)
+          + " pages, not " + pids.length + "\n");
+    }
+    if (status == PASS && Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames()) {
+      status = FAIL;
+      System.err.print("*** Prefetch has left pages pinned\n");
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Pin the prefetched pages\n");
+      reads = Minibase.DiskManager.getReadCount();
+      for (PageId pid : pids) {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      }
+      if (Minibase.DiskManager.getReadCount() != reads) {
+        status = FAIL;
+        System.err.print("*** Prefetched pages were read again\n");
+      }
+    }
+
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 6 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test6 ()
+
+  /**
+   * 
+   */
+  protected boolean test7() {
+
+    System.out.print("\n  Test 7 checks the buffer pool statistics\n");
+
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId pid;
+
+    System.out.print("  - Allocate a page, then pin it again\n");
+    BufMgrStats before = Minibase.BufferManager.stats();
+    try {
+      pid = Minibase.BufferManager.newPage(pg, 1);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate a new page\n");
+      e.printStackTrace();
+      return false;
+    }
+    BufMgrStats after = Minibase.BufferManager.stats();
+    if (after.getMisses() <= before.getMisses()) {
+      status = FAIL;
+      System.err.print("*** The new page was not counted as a miss\n");
+    }
+
+    // the page is resident now, so pinning it again only counts a hit
+    before = after;
+    Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+    after = Minibase.BufferManager.stats();
+    System.out.print("  - " + after + "\n");
+
+    if (after.getMisses() != before.getMisses()) {
+      status = FAIL;
+      System.err.print("*** Pinning a resident page counted a miss\n");
+    }
+    if (after.getHits() - before.getHits() != 1) {
+      status = FAIL;
+      System.err.print("*** Expected one hit, got "
+          + (after.getHits() - before.getHits()) + "\n");
+    }
+    if (after.getNumDirty() < 1) {
+      status = FAIL;
+      System.err.print("*** The dirty page was not counted\n");
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read the counters through JMX\n");
+      try {
+        Object frames = ManagementFactory.getPlatformMBeanServer().getAttribute(
+            new ObjectName(BufMgr.MBEAN_NAME), "NumFrames");
+        if (!Integer.valueOf(BUF_SIZE).equals(frames)) {
+          status = FAIL;
+          System.err.print("*** MBean reports " + frames + " frames\n");
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not read the MBean\n");
+        e.printStackTrace();
+      }
+    }
+
+    try {
+      Minibase.BufferManager.freePage(pid);
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Error freeing page " + pid.pid + "\n");
+      e.printStackTrace();
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 7 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test7 ()
+
+  /**
+   * 
+   */
+  protected boolean test8() {
+
+    System.out.print("\n  Test 8 flushes a run of dirty pages in one pass\n");
+
+    int numPages = BUF_SIZE / 2;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+
+    System.out.print("  - Allocate and dirty some new pages, last to first\n");
+    Minibase.BufferManager.flushAllPages();
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid + numPages - 1; pid.pid >= firstPid.pid; pid.pid = pid.pid - 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      pg.setIntValue(pid.pid + 77777, 0);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+
+    System.out.print("  - Flush them and read them back from disk\n");
+    Minibase.BufferManager.flushAllPages();
+    Page diskpage = new Page();
+    for (pid.pid = firstPid.pid; (status == PASS) && (pid.pid < firstPid.pid + numPages); pid.pid = pid.pid + 1) {
+      Minibase.DiskManager.read_page(pid, diskpage);
+      if (diskpage.getIntValue(0) != pid.pid + 77777) {
+        status = FAIL;
+        System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+      }
+    }
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 8 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test8 ()
+
+  /**
+   * 
+   */
+  protected boolean test9() {
+
+    System.out.print("\n  Test 9 pins and unpins whole runs of pages\n");
+
+    int numPages = BUF_SIZE / 4;
+    boolean status = PASS;
+    Page[] pages = new Page[numPages];
+    PageId[] pids = new PageId[numPages];
+    for (int i = 0; i < numPages; i++) {
+      pages[i] = new Page();
+    }
+
+    System.out.print("  - Allocate and pin a run of new pages\n");
+    PageId firstPid;
+    try {
+      firstPid = Minibase.BufferManager.newPages(pages, PIN_NOOP);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    for (int i = 0; i < numPages; i++) {
+      pids[i] = new PageId(firstPid.pid + i);
+      pages[i].setIntValue(pids[i].pid + 88888, 0);
+    }
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames() - numPages) {
+      status = FAIL;
+      System.err.print("*** The run was not pinned in full\n");
+    }
+    Minibase.BufferManager.unpinPages(pids, UNPIN_DIRTY);
+    Minibase.BufferManager.flushAllPages();
+
+    if (status == PASS) {
+      System.out.print("  - Pin the run again and check its contents\n");
+      Minibase.BufferManager.pinPages(pids, pages, PIN_DISKIO);
+      for (int i = 0; i < numPages; i++) {
+        if (pages[i].getIntValue(0) != pids[i].pid + 88888) {
+          status = FAIL;
+          System.err.print("*** Read wrong data back from page " + pids[i].pid + "\n");
+          break;
+        }
+      }
+      Minibase.BufferManager.unpinPages(pids, UNPIN_CLEAN);
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Try to pin more pages than there are frames\n");
+      PageId[] many = new PageId[BUF_SIZE + 1];
+      Page[] manyPages = new Page[BUF_SIZE + 1];
+      for (int i = 0; i < many.length; i++) {
+        many[i] = new PageId(firstPid.pid + i);
+        manyPages[i] = new Page();
+      }
+      try {
+        Minibase.BufferManager.pinPages(many, manyPages, PIN_NOOP);
+        status = FAIL;
+        System.err.print("*** Pinned more pages than there are frames\n");
+      } catch (IllegalStateException e) {
+        System.out.print("  --> Failed as expected \n");
+      }
+      if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames()) {
+        status = FAIL;
+        System.err.print("*** The failed batch left pages pinned\n");
+      }
+    }
+
+    for (PageId pid : pids) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 9 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test9 ()
+
+  /**
+   * Grows and shrinks the buffer pool while pages are in it.
+   */
+  protected boolean test10() {
+
+    System.out.print("\n  Test 10 resizes the buffer pool while in use\n");
+
+    int numPages = BUF_SIZE / 2;
+    boolean status = PASS;
+    Page[] pages = new Page[numPages];
+    PageId[] pids = new PageId[numPages];
+    for (int i = 0; i < numPages; i++) {
+      pages[i] = new Page();
+    }
+
+    System.out.print("  - Fill half the pool with dirty pages, keeping one pinned\n");
+    PageId firstPid;
+    try {
+      firstPid = Minibase.BufferManager.newPages(pages, PIN_NOOP);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    for (int i = 0; i < numPages; i++) {
+      pids[i] = new PageId(firstPid.pid + i);
+      pages[i].setIntValue(pids[i].pid + 77777, 0);
+    }
+    Minibase.BufferManager.unpinPages(pids, UNPIN_DIRTY);
+    Page held = new Page();
+    Minibase.BufferManager.pinPage(pids[0], held, PIN_DISKIO);
+
+    System.out.print("  - Shrink the pool to a quarter\n");
+    int frames = Minibase.BufferManager.resize(BUF_SIZE / 4);
+    if ((frames != BUF_SIZE / 4) || (Minibase.BufferManager.getNumFrames() != frames)
+        || (Minibase.BufferManager.getNumUnpinned() != frames - 1)) {
+      status = FAIL;
+      System.err.print("*** The pool did not shrink as expected\n");
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read every page back through the smaller pool\n");
+      Page page = new Page();
+      for (int i = 1; i < numPages; i++) {
+        Minibase.BufferManager.pinPage(pids[i], page, PIN_DISKIO);
+        if (page.getIntValue(0) != pids[i].pid + 77777) {
+          status = FAIL;
+          System.err.print("*** Read wrong data back from page " + pids[i].pid + "\n");
+        }
+        Minibase.BufferManager.unpinPage(pids[i], UNPIN_CLEAN);
+        if (status == FAIL)
+          break;
+      }
+      if (held.getIntValue(0) != pids[0].pid + 77777) {
+        status = FAIL;
+        System.err.print("*** The pinned page lost its contents\n");
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Grow the pool past its original size and back\n");
+      frames = Minibase.BufferManager.resize(BUF_SIZE * 2);
+      if ((frames != BUF_SIZE * 2) || (Minibase.BufferManager.getNumUnpinned() != frames - 1)) {
+        status = FAIL;
+        System.err.print("*** The pool did not grow as expected\n");
+      }
+      Page page = new Page();
+      Minibase.BufferManager.pinPage(pids[numPages - 1], page, PIN_DISKIO);
+      if (page.getIntValue(0) != pids[numPages - 1].pid + 77777) {
+        status = FAIL;
+        System.err.print("*** Read wrong data back after growing\n");
+      }
+      Minibase.BufferManager.unpinPage(pids[numPages - 1], UNPIN_CLEAN);
+      if (Minibase.BufferManager.resize(BUF_SIZE) != BUF_SIZE) {
+        status = FAIL;
+        System.err.print("*** The pool did not return to its original size\n");
+      }
+    }
+
+    Minibase.BufferManager.unpinPage(pids[0], UNPIN_CLEAN);
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames()) {
+      status = FAIL;
+      System.err.print("*** Resizing left pages pinned\n");
+    }
+
+    for (PageId pid : pids) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 10 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test10 ()
+
+  /**
+   * Misses from several threads with the pool split into partitions.
+   */
+  protected boolean test11() {
+
+    System.out.print("\n  Test 11 misses from several threads with the "
+        + "pool in partitions\n");
+
+    final int numThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    final int numPages = BUF_SIZE * 2;
+    final int numRounds = 2000;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+
+    System.out.print("  - Split the pool into 4 partitions\n");
+    Minibase.BufferManager.setPartitions(4);
+    if (Minibase.BufferManager.getNumPartitions() != 4) {
+      status = FAIL;
+      System.err.print("*** The pool was not partitioned\n");
+    }
+
+    System.out.print("  - Allocate more pages than frames and write their numbers on them\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      Minibase.BufferManager.setPartitions(1);
+      return false;
+    }
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      pg.setIntValue(pid.pid + 55555, 0);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+
+    System.out.print("  - Pin, check and unpin them from " + numThreads
+        + " threads\n");
+    final int first = firstPid.pid;
+    final boolean[] results = new boolean[numThreads];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        public void run() {
+          boolean ok = PASS;
+          Page page = new Page();
+          PageId pageno = new PageId();
+          try {
+            for (int i = 0; ok == PASS && i < numRounds; i++) {
+              pageno.pid = first + (i * 13 + id * 31) % numPages;
+              Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+              if (page.getIntValue(0) != pageno.pid + 55555) {
+                System.err.print("*** Read wrong data back from page "
+                    + pageno.pid + "\n");
+                ok = FAIL;
+              }
+              Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+            ok = FAIL;
+          }
+          results[id] = ok;
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        status = FAIL;
+      }
+    }
+    for (boolean result : results) {
+      status &= result;
+    }
+    System.out.print("  - " + Minibase.BufferManager.stats() + "\n");
+
+    if (status == PASS
+        && Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames()) {
+      status = FAIL;
+      System.err.print("*** Pages were left pinned after the threads finished\n");
+    }
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+    Minibase.BufferManager.setPartitions(1);
+
+    if (status == PASS)
+      System.out.print("  Test 11 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test11 ()
+
+  /**
+   * Keeps a page resident with a priority hint while others stream past.
+   */
+  protected boolean test12() {
+
+    System.out.print("\n  Test 12 keeps a page resident with a priority hint\n");
+
+    int numPages = BUF_SIZE + BUF_SIZE / 2;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+
+    System.out.print("  - Allocate some pages\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    System.out.print("  - Pin one page and unpin it with PRIORITY_KEEP\n");
+    PageId kept = new PageId(firstPid.pid);
+    Minibase.BufferManager.pinPage(kept, pg, PIN_DISKIO);
+    Minibase.BufferManager.unpinPage(kept, UNPIN_CLEAN, PRIORITY_KEEP);
+
+    System.out.print("  - Pin and unpin more pages than the pool holds\n");
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid + 1; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      if (pid.pid == firstPid.pid + BUF_SIZE / 2) {
+        // Check the kept page before the stream has gone round the pool
+        BufMgrStats before = Minibase.BufferManager.stats();
+        Minibase.BufferManager.pinPage(kept, pg, PIN_DISKIO);
+        BufMgrStats after = Minibase.BufferManager.stats();
+        Minibase.BufferManager.unpinPage(kept, UNPIN_CLEAN, PRIORITY_KEEP);
+        if (after.getHits() != before.getHits() + 1) {
+          status = FAIL;
+          System.err.print("*** The kept page was evicted\n");
+        }
+      }
+    }
+
+    System.out.print("  - Try an invalid priority\n");
+    Minibase.BufferManager.pinPage(kept, pg, PIN_DISKIO);
+    try {
+      Minibase.BufferManager.unpinPage(kept, UNPIN_CLEAN, 0);
+      status = FAIL;
+      System.err.print("*** Unpinned with an invalid priority\n");
+    } catch (IllegalArgumentException e) {
+      System.out.print("  --> Failed as expected \n");
+    }
+    Minibase.BufferManager.unpinPage(kept, UNPIN_CLEAN, PRIORITY_EVICT_SOON);
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 12 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test12 ()
+
+  /**
+   * Closes and reopens the database, warming up the pool from the pages
+   * that were resident.
+   */
+  protected boolean test13() {
+
+    System.out.print("\n  Test 13 warms up the buffer pool after a restart\n");
+
+    int numPages = BUF_SIZE / 2;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+
+    System.out.print("  - Allocate some pages and write their numbers on them\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      pg.setIntValue(pid.pid + 33333, 0);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+    int[] resident = Minibase.BufferManager.getResidentPages();
+    if (resident.length < numPages) {
+      status = FAIL;
+      System.err.print("*** Expected at least " + numPages + " resident pages, found "
+          + resident.length + "\n");
+    }
+
+    System.out.print("  - Close the database and open it again with warm-up\n");
+    Minibase.DiskManager.closeDB();
+    BUF_WARMUP = true;
+    load_minibase();
+    BUF_WARMUP = false;
+    Minibase.BufferManager.awaitPrefetch();
+    int reads = Minibase.DiskManager.getReadCount();
+
+    System.out.print("  - Pin the pages and check they were already resident\n");
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      if (pg.getIntValue(0) != pid.pid + 33333) {
+        status = FAIL;
+        System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+      }
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      if (status == FAIL)
+        break;
+    }
+    if (Minibase.DiskManager.getReadCount() != reads) {
+      status = FAIL;
+      System.err.print("*** " + (Minibase.DiskManager.getReadCount() - reads)
+          + " pages were read after the warm-up\n");
+    }
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 13 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test13 ()
+
+  /**
+   * Reads pages optimistically while another thread keeps changing them.
+   */
+  protected boolean test14() {
+
+    System.out.print("\n  Test 14 reads pages without pinning them\n");
+
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+
+    System.out.print("  - Allocate a page and write a pair of numbers on it\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, 1);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate a new page in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    final PageId pid = firstPid;
+    pg.setIntValue(0, 0);
+    pg.setIntValue(0, 4);
+
+    // Reads the pair, failing if the two halves disagree
+    final Function<Page, Integer> pair = new Function<Page, Integer>() {
+      public Integer apply(Page page) {
+        int a = page.getIntValue(0);
+        int b = page.getIntValue(4);
+        if (a != b) {
+          throw new IllegalStateException("Torn read: " + a + " != " + b);
+        }
+        return a;
+      }
+    };
+
+    System.out.print("  - Read it while pinned, then while unpinned\n");
+    if (Minibase.BufferManager.readOptimistic(pid, pair) != null) {
+      status = FAIL;
+      System.err.print("*** Read a pinned page without pinning it\n");
+    }
+    Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    Integer value = Minibase.BufferManager.readOptimistic(pid, pair);
+    if ((value == null) || (value != 0)) {
+      status = FAIL;
+      System.err.print("*** Could not read an unpinned page: " + value + "\n");
+    }
+
+    System.out.print("  - Read it from one thread while another updates it\n");
+    final int numRounds = 20000;
+    final AtomicInteger reads = new AtomicInteger();
+    final boolean[] ok = { PASS };
+    Thread writer = new Thread() {
+      public void run() {
+        Page page = new Page();
+        for (int i = 1; i <= numRounds; i++) {
+          Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO);
+          page.setIntValue(i, 0);
+          page.setIntValue(i, 4);
+          Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+        }
+      }
+    };
+    writer.start();
+    try {
+      while (writer.isAlive()) {
+        if (Minibase.BufferManager.readOptimistic(pid, pair) != null) {
+          reads.incrementAndGet();
+        }
+      }
+      writer.join();
+    } catch (IllegalStateException e) {
+      ok[0] = FAIL;
+      System.err.print("*** " + e.getMessage() + "\n");
+    } catch (InterruptedException e) {
+      ok[0] = FAIL;
+    }
+    status &= ok[0];
+    System.out.print("  - " + reads.get() + " reads validated\n");
+    value = Minibase.BufferManager.readOptimistic(pid, pair);
+    if ((value == null) || (value != numRounds)) {
+      status = FAIL;
+      System.err.print("*** Read the wrong value at the end: " + value + "\n");
+    }
+
+    System.out.print("  - Unpin it once too often and check it stays clean\n");
+    Minibase.BufferManager.flushPage(pid);
+    int writes = Minibase.DiskManager.getWriteCount();
+    try {
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      status = FAIL;
+      System.err.print("*** Unpinned a page that was not pinned\n");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Minibase.BufferManager.flushPage(pid);
+    if (Minibase.DiskManager.getWriteCount() != writes) {
+      status = FAIL;
+      System.err.print("*** The rejected unpin left the page dirty\n");
+    }
+
+    try {
+      Minibase.BufferManager.freePage(pid);
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Error freeing page " + pid.pid + "\n");
+      e.printStackTrace();
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 14 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test14 ()
+
+  /**
+   * Evicts pages into the compressed cache and brings them back from it.
+   */
+  protected boolean test15() {
+
+    System.out.print("\n  Test 15 keeps evicted pages in a compressed cache\n");
+
+    int numPages = BUF_SIZE * 2;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+    Minibase.BufferManager.setCompressedCache(PAGE_SIZE * BUF_SIZE);
+
+    System.out.print("  - Allocate twice as many pages as there are frames\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      fillPattern(pg, pid.pid + 44444);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+    int cached = Minibase.BufferManager.getNumCompressed();
+    if (cached < BUF_SIZE / 2) {
+      status = FAIL;
+      System.err.print("*** Only " + cached + " evicted pages were cached\n");
+    }
+
+    System.out.print("  - Read all the pages back without touching the disk\n");
+    int reads = Minibase.DiskManager.getReadCount();
+    long hits = Minibase.BufferManager.stats().getCompressedHits();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      if (!checkPattern(pg, pid.pid + 44444)) {
+        status = FAIL;
+        System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+      }
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      if (status == FAIL)
+        break;
+    }
+    if (Minibase.DiskManager.getReadCount() != reads) {
+      status = FAIL;
+      System.err.print("*** " + (Minibase.DiskManager.getReadCount() - reads)
+          + " pages were read from disk\n");
+    }
+    hits = Minibase.BufferManager.stats().getCompressedHits() - hits;
+    System.out.print("  - " + hits + " pages inflated from the cache\n");
+    if (hits < cached) {
+      status = FAIL;
+      System.err.print("*** Only " + hits + " of " + cached
+          + " cached pages were inflated\n");
+    }
+
+    System.out.print("  - Pin a batch of cached pages at once\n");
+    int batch = BUF_SIZE / 4;
+    PageId[] pids = new PageId[batch];
+    Page[] pages = new Page[batch];
+    for (int i = 0; i < batch; i++) {
+      pids[i] = new PageId(firstPid.pid + i);
+      pages[i] = new Page();
+    }
+    reads = Minibase.DiskManager.getReadCount();
+    hits = Minibase.BufferManager.stats().getCompressedHits();
+    Minibase.BufferManager.pinPages(pids, pages, PIN_DISKIO);
+    for (int i = 0; i < batch; i++) {
+      if ((status == PASS) && (!checkPattern(pages[i], pids[i].pid + 44444))) {
+        status = FAIL;
+        System.err.print("*** Read wrong data back from page " + pids[i].pid + "\n");
+      }
+    }
+    Minibase.BufferManager.unpinPages(pids, UNPIN_CLEAN);
+    if ((Minibase.DiskManager.getReadCount() != reads)
+        || (Minibase.BufferManager.stats().getCompressedHits() == hits)) {
+      status = FAIL;
+      System.err.print("*** The batch was not inflated from the cache\n");
+    }
+
+    System.out.print("  - Change an inflated page, evict it and read it back\n");
+    pid.pid = firstPid.pid;
+    Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+    fillPattern(pg, pid.pid + 55555);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    PageId other = new PageId();
+    for (other.pid = firstPid.pid + BUF_SIZE; other.pid < firstPid.pid + numPages; other.pid++) {
+      Minibase.BufferManager.pinPage(other, pg, PIN_DISKIO);
+      Minibase.BufferManager.unpinPage(other, UNPIN_CLEAN);
+    }
+    Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+    if (!checkPattern(pg, pid.pid + 55555)) {
+      status = FAIL;
+      System.err.print("*** Read a stale image of page " + pid.pid + "\n");
+    }
+    Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+
+    System.out.print("  - Turn the cache off and free the pages\n");
+    Minibase.BufferManager.setCompressedCache(0);
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+        break;
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 15 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test15 ()
+
+  /**
+   * Writes values derived from the given seed all across the page.
+   */
+  private static void fillPattern(Page page, int seed) {
+    for (int offset = 0; offset < PAGE_SIZE; offset += 64) {
+      page.setIntValue(seed * 31 + offset, offset);
+    }
+  }
+
+  /**
+   * Checks the values written by fillPattern().
+   */
+  private static boolean checkPattern(Page page, int seed) {
+    for (int offset = 0; offset < PAGE_SIZE; offset += 64) {
+      if (page.getIntValue(offset) != seed * 31 + offset) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Records a trace of a workload and replays it with the simulator.
+   */
+  protected boolean test16() {
+
+    System.out.print("\n  Test 16 records a trace and replays it\n");
+
+    int numPages = BUF_SIZE * 2;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+    String fname = DB_PATH + ".trace";
+
+    System.out.print("  - Record allocating and scanning twice as many pages as frames\n");
+    Minibase.BufferManager.startTrace(fname);
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      Minibase.BufferManager.stopTrace();
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    PageId pid = new PageId();
+    for (int scan = 0; scan < 2; scan++) {
+      for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+        Minibase.BufferManager.unpinPage(pid, scan == 0 ? UNPIN_DIRTY : UNPIN_CLEAN);
+      }
+    }
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.freePage(pid);
+    }
+    Minibase.BufferManager.stopTrace();
+
+    System.out.print("  - Replay the trace with a small and a large pool\n");
+    try {
+      TraceSimulator sim = new TraceSimulator(fname);
+      // The disk manager's space map pages are traced as well
+      int events = 2 + 4 * numPages + numPages;
+      if (sim.getNumEvents() < events) {
+        status = FAIL;
+        System.err.print("*** Expected at least " + events + " events, found "
+            + sim.getNumEvents() + "\n");
+      }
+      TraceSimulator.Result small = sim.run(BUF_POLICY, BUF_SIZE);
+      TraceSimulator.Result large = sim.run(BUF_POLICY, numPages * 2);
+      System.out.print("  - " + BUF_SIZE + " frames: " + small + "\n");
+      System.out.print("  - " + numPages * 2 + " frames: " + large + "\n");
+      if ((large.hits < numPages) || (large.writes != 0) || (small.writes == 0)
+          || (small.getHitRatio() > large.getHitRatio())) {
+        status = FAIL;
+        System.err.print("*** Replay does not fit the workload\n");
+      }
+    } catch (IOException e) {
+      status = FAIL;
+      System.err.print("*** Could not read the trace back\n");
+      e.printStackTrace();
+    }
+    new File(fname).delete();
+
+    if (status == PASS)
+      System.out.print("  Test 16 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test16 ()
+
+  /**
+   * Reopens the database with the file mapped into memory and back.
+   */
+  protected boolean test17() {
+
+    System.out.print("\n  Test 17 maps the database file into memory\n");
+
+    int numPages = BUF_SIZE * 2;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId firstPid;
+
+    System.out.print("  - Allocate pages and write their numbers on them\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages);
+      System.err.print(" new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      pg.setIntValue(pid.pid + 55555, 0);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+
+    System.out.print("  - Reopen it mapped, check the pages and change them\n");
+    Minibase.DiskManager.closeDB();
+    DISK_MAPPED = true;
+    load_minibase();
+    DISK_MAPPED = false;
+    if (!Minibase.DiskManager.isMapped()) {
+      status = FAIL;
+      System.err.print("*** The database file is not mapped\n");
+    }
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      if (pg.getIntValue(0) != pid.pid + 55555) {
+        status = FAIL;
+        System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+        Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+        break;
+      }
+      pg.setIntValue(pid.pid + 66666, 0);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+
+    System.out.print("  - Reopen it unmapped and check the changes\n");
+    Minibase.DiskManager.closeDB();
+    load_minibase();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      if (pg.getIntValue(0) != pid.pid + 66666) {
+        status = FAIL;
+        System.err.print("*** Read wrong data back from page " + pid.pid + "\n");
+      }
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      if (status == FAIL)
+        break;
+    }
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid = pid.pid + 1) {
+      try {
+        Minibase.BufferManager.freePage(pid);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing page " + pid.pid + "\n");
+        e.printStackTrace();
+        break;
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 17 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test17 ()
+
+  /**
+   * Allocates and frees runs of pages and checks the space map survives a
+   * restart.
+   */
+  protected boolean test18() {
+
+    System.out.print("\n  Test 18 allocates runs from the space map\n");
+
+    int numRuns = 50;
+    boolean status = PASS;
+    PageId[] runs = new PageId[numRuns];
+    int[] sizes = new int[numRuns];
+    int allocs = Minibase.DiskManager.getAllocCount();
+
+    System.out.print("  - Allocate runs of 1 to 70 pages and free every other one\n");
+    int expected = allocs;
+    for (int i = 0; i < numRuns; i++) {
+      sizes[i] = 1 + (i * 37) % 70;
+      runs[i] = Minibase.DiskManager.allocate_page(sizes[i]);
+      expected += sizes[i];
+    }
+    for (int i = 0; i < numRuns; i += 2) {
+      Minibase.DiskManager.deallocate_page(runs[i], sizes[i]);
+      expected -= sizes[i];
+    }
+    if (Minibase.DiskManager.getAllocCount() != expected) {
+      status = FAIL;
+      System.err.print("*** Expected " + expected + " allocated pages, found "
+          + Minibase.DiskManager.getAllocCount() + "\n");
+    }
+
+    System.out.print("  - Reopen the database and check the count\n");
+    Minibase.DiskManager.closeDB();
+    load_minibase();
+    if (Minibase.DiskManager.getAllocCount() != expected) {
+      status = FAIL;
+      System.err.print("*** Expected " + expected + " allocated pages after a restart, found "
+          + Minibase.DiskManager.getAllocCount() + "\n");
+    }
+
+    System.out.print("  - Allocate the freed runs again without overlapping the others\n");
+    for (int i = 0; i < numRuns; i += 2) {
+      runs[i] = Minibase.DiskManager.allocate_page(sizes[i]);
+    }
+    for (int i = 0; (i < numRuns) && (status == PASS); i++) {
+      for (int j = i + 1; j < numRuns; j++) {
+        if ((runs[i].pid < runs[j].pid + sizes[j]) && (runs[j].pid < runs[i].pid + sizes[i])) {
+          status = FAIL;
+          System.err.print("*** Runs at " + runs[i].pid + " and " + runs[j].pid + " overlap\n");
+          break;
+        }
+      }
+    }
+
+    for (int i = 0; i < numRuns; i++) {
+      Minibase.DiskManager.deallocate_page(runs[i], sizes[i]);
+    }
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      status = FAIL;
+      System.err.print("*** Expected " + allocs + " allocated pages at the end, found "
+          + Minibase.DiskManager.getAllocCount() + "\n");
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 18 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test18 ()
+
+  /**
+   * Allocates large runs from the free extents in a fragmented file.
+   */
+  protected boolean test19() {
+
+    System.out.print("\n  Test 19 allocates large runs from the free extents\n");
+
+    int numRuns = 8;
+    int runSize = 128;
+    boolean status = PASS;
+    PageId[] runs = new PageId[numRuns];
+    int allocs = Minibase.DiskManager.getAllocCount();
+
+    System.out.print("  - Allocate " + numRuns + " runs of " + runSize + " pages\n");
+    for (int i = 0; i < numRuns; i++) {
+      runs[i] = Minibase.DiskManager.allocate_page(runSize);
+      if ((i > 0) && (runs[i].pid != runs[i - 1].pid + runSize)) {
+        status = FAIL;
+        System.err.print("*** Run " + i + " does not follow the one before\n");
+      }
+    }
+
+    System.out.print("  - Free two neighbours and one more, then allocate twice the size\n");
+    Minibase.DiskManager.deallocate_page(runs[1], runSize);
+    Minibase.DiskManager.deallocate_page(runs[3], runSize);
+    Minibase.DiskManager.deallocate_page(runs[4], runSize);
+    PageId big = Minibase.DiskManager.allocate_page(runSize * 2);
+    if (big.pid != runs[3].pid) {
+      status = FAIL;
+      System.err.print("*** Expected the coalesced extent at " + runs[3].pid
+          + ", got " + big.pid + "\n");
+    }
+    PageId small = Minibase.DiskManager.allocate_page(runSize);
+    if (small.pid != runs[1].pid) {
+      status = FAIL;
+      System.err.print("*** Expected the freed extent at " + runs[1].pid
+          + ", got " + small.pid + "\n");
+    }
+
+    Minibase.DiskManager.deallocate_page(small, runSize);
+    Minibase.DiskManager.deallocate_page(big, runSize * 2);
+    for (int i = 0; i < numRuns; i++) {
+      if ((i != 1) && (i != 3) && (i != 4)) {
+        Minibase.DiskManager.deallocate_page(runs[i], runSize);
+      }
+    }
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      status = FAIL;
+      System.err.print("*** Expected " + allocs + " allocated pages at the end, found "
+          + Minibase.DiskManager.getAllocCount() + "\n");
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 19 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test19 ()
+
+  /**
+   * Allocates past the end of the database file, so that it grows.
+   */
+  protected boolean test20() {
+
+    System.out.print("\n  Test 20 grows the database file on demand\n");
+
+    int runSize = 50;
+    int mapRange = PAGE_SIZE * 8;
+    boolean status = PASS;
+    Page pg = new Page();
+    int allocs = Minibase.DiskManager.getAllocCount();
+    int size = Minibase.DiskManager.getNumPages();
+    ArrayList<PageId> runs = new ArrayList<PageId>();
+
+    System.out.print("  - Allocate runs until the file covers three space-map ranges\n");
+    while (Minibase.DiskManager.getNumPages() <= mapRange * 2 + runSize) {
+      runs.add(Minibase.DiskManager.allocate_page(runSize));
+    }
+    System.out.print("  - Grew from " + size + " to " + Minibase.DiskManager.getNumPages()
+        + " pages\n");
+    for (PageId run : runs) {
+      if ((run.pid <= mapRange * 2) && (run.pid + runSize > mapRange * 2)) {
+        status = FAIL;
+        System.err.print("*** Run at " + run.pid + " covers a space-map page\n");
+      }
+    }
+    PageId last = runs.get(runs.size() - 1);
+    Minibase.BufferManager.pinPage(last, pg, PIN_DISKIO);
+    pg.setIntValue(last.pid + 77777, 0);
+    Minibase.BufferManager.unpinPage(last, UNPIN_DIRTY);
+
+    System.out.print("  - Reopen the database and check the size, count and data\n");
+    size = Minibase.DiskManager.getNumPages();
+    int expected = Minibase.DiskManager.getAllocCount();
+    Minibase.DiskManager.closeDB();
+    load_minibase();
+    if ((Minibase.DiskManager.getNumPages() != size)
+        || (Minibase.DiskManager.getAllocCount() != expected)) {
+      status = FAIL;
+      System.err.print("*** Expected " + size + " pages with " + expected
+          + " allocated, found " + Minibase.DiskManager.getNumPages() + " with "
+          + Minibase.DiskManager.getAllocCount() + "\n");
+    }
+    Minibase.BufferManager.pinPage(last, pg, PIN_DISKIO);
+    if (pg.getIntValue(0) != last.pid + 77777) {
+      status = FAIL;
+      System.err.print("*** Read wrong data back from page " + last.pid + "\n");
+    }
+    Minibase.BufferManager.unpinPage(last, UNPIN_CLEAN);
+
+    for (PageId run : runs) {
+      Minibase.DiskManager.deallocate_page(run, runSize);
+    }
+    if (Minibase.DiskManager.getAllocCount() != allocs + 1) {
+      status = FAIL;
+      System.err.print("*** Expected " + (allocs + 1) + " allocated pages with the new"
+          + " space-map page, found " + Minibase.DiskManager.getAllocCount() + "\n");
+    }
+
+    System.out.print("  - Grow for the longest run that fits between space-map pages\n");
+    PageId longest = Minibase.DiskManager.allocate_page(DiskMgr.MAX_GROWN_RUN);
+    Minibase.DiskManager.deallocate_page(longest, DiskMgr.MAX_GROWN_RUN);
+    try {
+      Minibase.DiskManager.allocate_page(Minibase.DiskManager.getNumPages());
+      status = FAIL;
+      System.err.print("*** Allocated a run as long as the whole file\n");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 20 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test20 ()
+
+  /**
+   * Adds, looks up and deletes enough file entries to span several header
+   * pages.
+   */
+  protected boolean test21() {
+
+    System.out.print("\n  Test 21 looks up file entries by name\n");
+
+    int numFiles = 100;
+    boolean status = PASS;
+    PageId first = Minibase.DiskManager.allocate_page(numFiles);
+
+    System.out.print("  - Add " + numFiles + " entries and look them up in another case\n");
+    for (int i = 0; i < numFiles; i++) {
+      Minibase.DiskManager.add_file_entry("test21_file" + i, new PageId(first.pid + i));
+    }
+    try {
+      Minibase.DiskManager.add_file_entry("TEST21_FILE7", first);
+      status = FAIL;
+      System.err.print("*** Added the same file name twice\n");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    System.out.print("  - Delete every other entry, reopen and check the rest\n");
+    for (int i = 0; i < numFiles; i += 2) {
+      Minibase.DiskManager.delete_file_entry("Test21_File" + i);
+    }
+    Minibase.DiskManager.closeDB();
+    load_minibase();
+    for (int i = 0; i < numFiles; i++) {
+      PageId pid = Minibase.DiskManager.get_file_entry("TEST21_FILE" + i);
+      if ((i % 2 == 0) ? (pid != null) : ((pid == null) || (pid.pid != first.pid + i))) {
+        status = FAIL;
+        System.err.print("*** Wrong entry for file " + i + ": " + pid + "\n");
+        break;
+      }
+    }
+
+    System.out.print("  - Reuse the freed slots and delete everything\n");
+    for (int i = 0; i < numFiles; i += 2) {
+      Minibase.DiskManager.add_file_entry("test21_again" + i, new PageId(first.pid + i));
+    }
+    for (int i = 0; i < numFiles; i++) {
+      Minibase.DiskManager.delete_file_entry(((i % 2 == 0) ? "test21_again" : "test21_file") + i);
+    }
+    for (int i = 0; i < numFiles; i++) {
+      if (Minibase.DiskManager.get_file_entry("test21_file" + i) != null) {
+        status = FAIL;
+        System.err.print("*** File " + i + " is still there\n");
+        break;
+      }
+    }
+    Minibase.DiskManager.deallocate_page(first, numFiles);
+
+    if (status == PASS)
+      System.out.print("  Test 21 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test21 ()
+
+  /**
+   * Reads and writes pages asynchronously, and pins a batch of pages that
+   * are not resident.
+   */
+  protected boolean test22() {
+
+    System.out.print("\n  Test 22 reads and writes pages asynchronously\n");
+
+    int numPages = BUF_SIZE / 2;
+    boolean status = PASS;
+    PageId first = Minibase.DiskManager.allocate_page(numPages);
+    Minibase.DiskManager.setQueueDepth(4);
+
+    System.out.print("  - Write " + numPages + " pages with a queue depth of 4\n");
+    ArrayList<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+    for (int i = 0; i < numPages; i++) {
+      Page pg = new Page();
+      pg.setIntValue(first.pid + i + 22222, 0);
+      futures.add(Minibase.DiskManager.writePageAsync(new PageId(first.pid + i), pg));
+    }
+    for (CompletableFuture<Void> future : futures) {
+      future.join();
+    }
+
+    System.out.print("  - Read them back asynchronously\n");
+    futures.clear();
+    Page[] pages = new Page[numPages];
+    for (int i = 0; i < numPages; i++) {
+      pages[i] = new Page();
+      futures.add(Minibase.DiskManager.readPageAsync(new PageId(first.pid + i), pages[i]));
+    }
+    for (int i = 0; i < numPages; i++) {
+      futures.get(i).join();
+      if (pages[i].getIntValue(0) != first.pid + i + 22222) {
+        status = FAIL;
+        System.err.print("*** Read back " + pages[i].getIntValue(0) + " from page "
+            + (first.pid + i) + "\n");
+        break;
+      }
+    }
+
+    System.out.print("  - Pin them all at once through the buffer manager\n");
+    PageId[] pids = new PageId[numPages];
+    for (int i = 0; i < numPages; i++) {
+      pids[i] = new PageId(first.pid + i);
+      pages[i] = new Page();
+    }
+    Minibase.BufferManager.pinPages(pids, pages, PIN_DISKIO);
+    for (int i = 0; i < numPages; i++) {
+      if (pages[i].getIntValue(0) != first.pid + i + 22222) {
+        status = FAIL;
+        System.err.print("*** Pinned page " + pids[i].pid + " holds " + pages[i].getIntValue(0)
+            + "\n");
+        break;
+      }
+    }
+    Minibase.BufferManager.unpinPages(pids, UNPIN_CLEAN);
+
+    System.out.print("  - Pin a batch of missing pages that names one page twice\n");
+    PageId fresh = Minibase.DiskManager.allocate_page(2);
+    PageId[] twice = { fresh, new PageId(fresh.pid + 1), new PageId(fresh.pid) };
+    Page[] twicePages = { new Page(), new Page(), new Page() };
+    Minibase.BufferManager.pinPages(twice, twicePages, PIN_DISKIO);
+    twicePages[0].setIntValue(33333, 0);
+    if (twicePages[2].getIntValue(0) != 33333) {
+      status = FAIL;
+      System.err.print("*** The two copies of page " + fresh.pid + " are different frames\n");
+    }
+    Minibase.BufferManager.unpinPages(twice, UNPIN_DIRTY);
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames()) {
+      status = FAIL;
+      System.err.print("*** Pages still pinned after unpinning the batch\n");
+    }
+    Minibase.DiskManager.deallocate_page(fresh, 2);
+
+    try {
+      Minibase.DiskManager.readPageAsync(new PageId(-1), new Page());
+      status = FAIL;
+      System.err.print("*** Read an invalid page asynchronously\n");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Minibase.DiskManager.setQueueDepth(DiskMgr.DEFAULT_QUEUE_DEPTH);
+    Minibase.DiskManager.deallocate_page(first, numPages);
+
+    if (status == PASS)
+      System.out.print("  Test 22 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test22 ()
+
+  /**
+   * Checks each replacement policy on a small pool of its own: the order
+   * victims are chosen in, skipping pinned frames, and keeping reused pages
+   * through a scan.
+   */
+  protected boolean test23() {
+
+    System.out.print("\n  Test 23 checks each replacement policy on its own pool\n");
+
+    int numFrames = 8;
+    int numPages = 40;
+    boolean status = PASS;
+    PageId first = Minibase.DiskManager.allocate_page(numPages);
+    for (String policy : TraceSimulator.POLICIES) {
+      System.out.print("  - " + policy + "\n");
+      status &= checkPolicy(policy, numFrames, first.pid, numPages);
+    }
+
+    System.out.print("  - Look the policies up by their other names\n");
+    for (String alias : new String[] { null, "clock", "gclock", "lru", "LRUK", "LRU-2", "2q", "arc" }) {
+      try {
+        new BufMgr(numFrames, alias);
+      } catch (IllegalArgumentException e) {
+        status = FAIL;
+        System.err.print("*** Policy " + alias + " not found\n");
+      }
+    }
+    try {
+      new BufMgr(numFrames, "MRU");
+      status = FAIL;
+      System.err.print("*** Built an unknown policy\n");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Minibase.DiskManager.deallocate_page(first, numPages);
+
+    if (status == PASS)
+      System.out.print("  Test 23 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test23 ()
+
+  /**
+   * Runs the checks of test23 against one policy, over pages base to
+   * base + numPages - 1.
+   */
+  private boolean checkPolicy(String policy, int numFrames, int base, int numPages) {
+
+    boolean status = PASS;
+    BufMgr pool = new BufMgr(numFrames, policy);
+    Page pg = new Page();
+
+    // of pages used once each, the oldest goes first
+    for (int i = 0; i <= numFrames; i++) {
+      touch(pool, base + i, PRIORITY_NORMAL);
+    }
+    if (isResident(pool, base)) {
+      status = FAIL;
+      System.err.print("*** " + policy + " kept the oldest page\n");
+    }
+
+    // a pinned page stays through any number of misses, and a pool of
+    // pinned pages has no victim at all
+    PageId held = new PageId(base + 1);
+    pool.pinPage(held, pg, PIN_DISKIO);
+    for (int i = numFrames + 1; i < numFrames * 3; i++) {
+      touch(pool, base + i, PRIORITY_NORMAL);
+    }
+    if (!isResident(pool, held.pid)) {
+      status = FAIL;
+      System.err.print("*** " + policy + " replaced a pinned page\n");
+    }
+    PageId[] others = new PageId[numFrames - 1];
+    for (int i = 0; i < others.length; i++) {
+      others[i] = new PageId(base + numFrames * 3 + i);
+      pool.pinPage(others[i], new Page(), PIN_DISKIO);
+    }
+    try {
+      pool.pinPage(new PageId(base + 2), new Page(), PIN_DISKIO);
+      status = FAIL;
+      System.err.print("*** " + policy + " found a victim among pinned pages\n");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    for (PageId pageno : others) {
+      pool.unpinPage(pageno, UNPIN_CLEAN);
+    }
+    pool.unpinPage(held, UNPIN_CLEAN);
+
+    // once every page has been used again, a page marked to evict soon
+    // goes before all of them
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 1; i <= numFrames; i++) {
+        touch(pool, base + i, PRIORITY_NORMAL);
+      }
+    }
+    touch(pool, base + 4, PRIORITY_EVICT_SOON);
+    touch(pool, base + numFrames + 1, PRIORITY_NORMAL);
+    for (int i = 1; i <= numFrames; i++) {
+      if (isResident(pool, base + i) == (i == 4)) {
+        status = FAIL;
+        System.err.print("*** " + policy + " did not replace the page marked to evict soon\n");
+        break;
+      }
+    }
+
+    // a marked page that is used again is kept like any other
+    touch(pool, base + 5, PRIORITY_EVICT_SOON);
+    touch(pool, base + 5, PRIORITY_NORMAL);
+    touch(pool, base + 5, PRIORITY_NORMAL);
+    touch(pool, base + numFrames + 2, PRIORITY_NORMAL);
+    if (!isResident(pool, base + 5)) {
+      status = FAIL;
+      System.err.print("*** " + policy + " replaced a marked page that was used again\n");
+    }
+
+    // pages used twice survive a long scan that marks its pages to evict
+    // soon; the clock policies are left out, as their hand wears down the
+    // references of pages not used again however the scan marks its own
+    int hot = base;
+    if (!policy.equals("Clock") && !policy.equals("GCLOCK")) {
+      pool = new BufMgr(numFrames, policy);
+      for (int pass = 0; pass < 2; pass++) {
+        touch(pool, hot, PRIORITY_NORMAL);
+        touch(pool, hot + 1, PRIORITY_NORMAL);
+      }
+      for (int i = 2; i < numPages; i++) {
+        touch(pool, base + i, PRIORITY_EVICT_SOON);
+      }
+      if ((!isResident(pool, hot)) || (!isResident(pool, hot + 1))) {
+        status = FAIL;
+        System.err.print("*** " + policy + " let a marked scan replace reused pages\n");
+      }
+    }
+
+    // the scan resistant policies do without the mark, once the reused
+    // pages have been seen again after dropping out of the pool
+    if (policy.equals("LRU-K") || policy.equals("2Q") || policy.equals("ARC")) {
+      pool = new BufMgr(numFrames, policy);
+      int next = base + 2;
+      for (int round = 0; round < 2; round++) {
+        for (int pass = 0; pass < 2; pass++) {
+          touch(pool, hot, PRIORITY_NORMAL);
+          touch(pool, hot + 1, PRIORITY_NORMAL);
+        }
+        int end = (round == 0) ? next + numFrames : base + numPages;
+        for (; next < end; next++) {
+          touch(pool, next, PRIORITY_NORMAL);
+        }
+      }
+      if ((!isResident(pool, hot)) || (!isResident(pool, hot + 1))) {
+        status = FAIL;
+        System.err.print("*** " + policy + " let a scan replace reused pages\n");
+      }
+    }
+    return status;
+
+  } // private boolean checkPolicy(String policy, int numFrames, int base, int numPages)
+
+  /**
+   * Scans through a buffer ring, with and without prefetching through the
+   * same ring, and checks that the rest of the pool stays resident.
+   */
+  protected boolean test24() {
+
+    System.out.print("\n  Test 24 scans through a buffer ring\n");
+
+    int numHot = BUF_SIZE / 2;
+    int numScan = BUF_SIZE * 3;
+    boolean status = PASS;
+    Page pg = new Page();
+    PageId hot = Minibase.DiskManager.allocate_page(numHot);
+    PageId scan = Minibase.DiskManager.allocate_page(numScan);
+
+    for (int pass = 0; pass < 2; pass++) {
+      System.out.print("  - Scan " + numScan + " pages"
+          + ((pass == 0) ? "" : " while prefetching ahead through the ring") + "\n");
+
+      // make the hot pages resident and recently used
+      for (int i = 0; i < numHot; i++) {
+        PageId pageno = new PageId(hot.pid + i);
+        Minibase.BufferManager.pinPage(pageno, pg, PIN_DISKIO);
+        Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+      }
+
+      BufferRing ring = Minibase.BufferManager.newRing(8);
+      for (int i = 0; i < numScan; i++) {
+        if ((pass == 1) && (i + 2 < numScan)) {
+          Minibase.BufferManager.prefetch(ring, new PageId(scan.pid + i + 2));
+        }
+        PageId pageno = new PageId(scan.pid + i);
+        Minibase.BufferManager.pinPage(pageno, pg, PIN_DISKIO, ring);
+        Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN, ring);
+      }
+      Minibase.BufferManager.awaitPrefetch(ring);
+
+      // the ring took at most its own frames from the pool
+      HashSet<Integer> resident = new HashSet<Integer>();
+      for (int pid : Minibase.BufferManager.getResidentPages()) {
+        resident.add(pid);
+      }
+      int lost = 0;
+      for (int i = 0; i < numHot; i++) {
+        if (!resident.contains(hot.pid + i)) {
+          lost++;
+        }
+      }
+      if (lost > ring.getSize()) {
+        status = FAIL;
+        System.err.print("*** The scan replaced " + lost + " pages through a ring of "
+            + ring.getSize() + "\n");
+      }
+    }
+
+    Minibase.DiskManager.deallocate_page(hot, numHot);
+    Minibase.DiskManager.deallocate_page(scan, numScan);
+
+    if (status == PASS)
+      System.out.print("  Test 24 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test24 ()
+
+  /**
+   * Checks that new pages pinned with PIN_NOOP start out zeroed, even in
+   * frames that held other pages before.
+   */
+  protected boolean test25() {
+
+    System.out.print("\n  Test 25 pins new pages into recycled frames\n");
+
+    int numFrames = Minibase.BufferManager.getNumFrames();
+    boolean status = PASS;
+    byte[] junk = new byte[PAGE_SIZE];
+    Arrays.fill(junk, (byte) 0x5A);
+
+    System.out.print("  - Fill every frame with a run of non-zero pages\n");
+    Page[] pages = new Page[numFrames];
+    PageId[] pids = new PageId[numFrames];
+    for (int i = 0; i < numFrames; i++) {
+      pages[i] = new Page();
+    }
+    PageId firstPid = Minibase.BufferManager.newPages(pages, PIN_NOOP);
+    for (int i = 0; i < numFrames; i++) {
+      pids[i] = new PageId(firstPid.pid + i);
+      pages[i].setBytes(junk, 0, 0, PAGE_SIZE);
+    }
+    Minibase.BufferManager.unpinPages(pids, UNPIN_DIRTY);
+
+    System.out.print("  - Pin a new page, then a new run, and check they are blank\n");
+    Page pg = new Page();
+    PageId single = Minibase.BufferManager.newPage(pg, 1, PIN_NOOP);
+    if (!isBlank(pg)) {
+      status = FAIL;
+      System.err.print("*** New page " + single.pid + " shows an evicted page\n");
+    }
+    Minibase.BufferManager.unpinPage(single, UNPIN_CLEAN);
+    Page[] run = new Page[numFrames / 2];
+    PageId[] runPids = new PageId[run.length];
+    for (int i = 0; i < run.length; i++) {
+      run[i] = new Page();
+    }
+    PageId firstRun = Minibase.BufferManager.newPages(run, PIN_NOOP);
+    for (int i = 0; i < run.length; i++) {
+      runPids[i] = new PageId(firstRun.pid + i);
+      if ((status == PASS) && (!isBlank(run[i]))) {
+        status = FAIL;
+        System.err.print("*** New page " + runPids[i].pid + " shows an evicted page\n");
+      }
+    }
+    Minibase.BufferManager.unpinPages(runPids, UNPIN_CLEAN);
+
+    Minibase.BufferManager.freePage(single);
+    for (PageId pid : runPids) {
+      Minibase.BufferManager.freePage(pid);
+    }
+    for (PageId pid : pids) {
+      Minibase.BufferManager.freePage(pid);
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 25 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test25 ()
+
+  /**
+   * Reads the page table from several threads while it is being updated and
+   * rebuilt, first on its own and then underneath the buffer manager.
+   */
+  protected boolean test26() {
+
+    System.out.print("\n  Test 26 reads the page table while it is rebuilt\n");
+
+    final int numThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    final int numStable = 16;
+    final int numChurn = 48;
+    final int numBatches = 1000;
+    final int numRounds = 2000;
+    boolean status = PASS;
+
+    System.out.print("  - Map and unmap pages in one stripe for a second while "
+        + numThreads + " threads look up the others\n");
+    final PageFrameMap map = new PageFrameMap(numStable + numChurn, 1);
+    for (int i = 0; i < numStable; i++) {
+      map.addToMap(i, i);
+    }
+    final AtomicBoolean done = new AtomicBoolean();
+    final boolean[] results = new boolean[numThreads];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        public void run() {
+          boolean ok = PASS;
+          for (int i = 0; ok == PASS && !done.get(); i++) {
+            int stable = (i + id) % numStable;
+            if (map.getFrameFromPage(stable) != stable) {
+              System.err.print("*** Lost the mapping of page " + stable + "\n");
+              ok = FAIL;
+            }
+            int churn = 1000 + (i * 7 + id) % (numBatches * numChurn);
+            int frame = map.getFrameFromPage(churn);
+            if ((frame != PageFrameMap.NO_MAPPING)
+                && (frame != numStable + (churn - 1000) % numChurn)) {
+              System.err.print("*** Page " + churn + " mapped to frame " + frame + "\n");
+              ok = FAIL;
+            }
+          }
+          results[id] = ok;
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    long deadline = System.nanoTime() + 1000000000L;
+    for (int c = 0; System.nanoTime() < deadline; c++) {
+      // A fresh batch of pages leaves its removed slots behind, so the
+      // stripe is rebuilt every few batches
+      int base = 1000 + (c % numBatches) * numChurn;
+      for (int j = 0; j < numChurn; j++) {
+        map.addToMap(numStable + j, base + j);
+      }
+      for (int j = 0; j < numChurn; j++) {
+        map.removeFromMap(numStable + j, base + j);
+      }
+    }
+    done.set(true);
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        status = FAIL;
+      }
+    }
+    for (boolean result : results) {
+      status &= result;
+    }
+
+    System.out.print("  - Pin, check and unpin three times as many pages as frames"
+        + " from " + numThreads + " threads\n");
+    final int numPages = Minibase.BufferManager.getNumFrames() * 3;
+    Page pg = new Page();
+    final PageId firstPid = Minibase.BufferManager.newPage(pg, numPages);
+    Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid++) {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      pg.setIntValue(pid.pid + 26262, 0);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+    long evictions = Minibase.BufferManager.stats().getEvictions();
+    for (int t = 0; t < numThreads; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        public void run() {
+          boolean ok = PASS;
+          Page page = new Page();
+          PageId pageno = new PageId();
+          try {
+            for (int i = 0; ok == PASS && i < numRounds; i++) {
+              pageno.pid = firstPid.pid + (i * 17 + id * 29) % numPages;
+              Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+              if (page.getIntValue(0) != pageno.pid + 26262) {
+                System.err.print("*** Read wrong data back from page "
+                    + pageno.pid + "\n");
+                ok = FAIL;
+              }
+              Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+            ok = FAIL;
+          }
+          results[id] = ok;
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        status = FAIL;
+      }
+    }
+    for (boolean result : results) {
+      status &= result;
+    }
+    if (Minibase.BufferManager.stats().getEvictions() == evictions) {
+      status = FAIL;
+      System.err.print("*** No page was evicted while the threads ran\n");
+    }
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager.getNumFrames()) {
+      status = FAIL;
+      System.err.print("*** Pages were left pinned after the threads finished\n");
+    }
+
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages; pid.pid++) {
+      Minibase.BufferManager.freePage(pid);
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 26 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test26 ()
+
+  /**
+   * Checks that the background writer cleans the pages the replacement
+   * policy is about to evict, whatever order it evicts them in.
+   */
+  protected boolean test27() {
+
+    System.out.print("\n  Test 27 cleans pages in the order they are evicted\n");
+
+    int numFrames = BUF_SIZE;
+    int numClean = numFrames / 10;
+    boolean status = PASS;
+    Page pg = new Page();
+    BufMgr pool = new BufMgr(numFrames, BUF_POLICY);
+
+    System.out.print("  - Fill a new pool with dirty pages and touch half of them again\n");
+    PageId firstPid = Minibase.DiskManager.allocate_page(numFrames + numClean);
+    PageId pid = new PageId();
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numFrames; pid.pid++) {
+      pool.pinPage(pid, pg, PIN_DISKIO);
+      pool.unpinPage(pid, UNPIN_DIRTY);
+    }
+    for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numFrames / 2; pid.pid++) {
+      touch(pool, pid.pid, PRIORITY_NORMAL);
+    }
+
+    System.out.print("  - Let the writer clean the next " + numClean + " victims\n");
+    int writes = Minibase.DiskManager.getWriteCount();
+    pool.startWriter(60000, numClean, 1.0);
+    for (int i = 0; (i < 500) && (Minibase.DiskManager.getWriteCount() < writes + numClean); i++) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        break;
+      }
+    }
+    pool.stopWriter();
+    if (Minibase.DiskManager.getWriteCount() != writes + numClean) {
+      status = FAIL;
+      System.err.print("*** The writer wrote " + (Minibase.DiskManager.getWriteCount() - writes)
+          + " pages instead of " + numClean + "\n");
+    }
+
+    System.out.print("  - Pin " + numClean + " other pages and check no victim was dirty\n");
+    long dirty = pool.stats().getDirtyEvictions();
+    for (pid.pid = firstPid.pid + numFrames; pid.pid < firstPid.pid + numFrames + numClean; pid.pid++) {
+      touch(pool, pid.pid, PRIORITY_NORMAL);
+    }
+    dirty = pool.stats().getDirtyEvictions() - dirty;
+    if (dirty != 0) {
+      status = FAIL;
+      System.err.print("*** " + dirty + " victims had to be written first\n");
+    }
+
+    Minibase.DiskManager.deallocate_page(firstPid, numFrames + numClean);
+
+    if (status == PASS)
+      System.out.print("  Test 27 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test27 ()
+
+  /**
+   * Checks that splitting a shrunk pool into partitions does not make the
+   * victim searches sweep further.
+   */
+  protected boolean test28() {
+
+    System.out.print("\n  Test 28 sweeps no further in partitions\n");
+
+    int numFrames = BUF_SIZE;
+    int numPages = numFrames * 3;
+    boolean status = PASS;
+    BufMgr whole = new BufMgr(numFrames, BUF_POLICY);
+    BufMgr split = new BufMgr(numFrames, BUF_POLICY);
+
+    System.out.print("  - Grow two new pools to twice their size and shrink them back\n");
+    for (BufMgr pool : new BufMgr[] { whole, split }) {
+      pool.resize(numFrames * 2);
+      pool.resize(numFrames);
+    }
+
+    System.out.print("  - Split one of them into 4 partitions\n");
+    split.setPartitions(4);
+
+    System.out.print("  - Cycle through " + numPages + " pages in both\n");
+    PageId firstPid = Minibase.DiskManager.allocate_page(numPages);
+    for (int round = 0; round < 3; round++) {
+      for (int pid = firstPid.pid; pid < firstPid.pid + numPages; pid++) {
+        touch(whole, pid, PRIORITY_NORMAL);
+        touch(split, pid, PRIORITY_NORMAL);
+      }
+    }
+    double wholeSweep = whole.stats().getAverageSweepLength();
+    double splitSweep = split.stats().getAverageSweepLength();
+    System.out.print("  - Average sweep " + wholeSweep + " whole, " + splitSweep
+        + " in partitions\n");
+    if (splitSweep > wholeSweep) {
+      status = FAIL;
+      System.err.print("*** The partitioned pool swept further\n");
+    }
+
+    Minibase.DiskManager.deallocate_page(firstPid, numPages);
+
+    if (status == PASS)
+      System.out.print("  Test 28 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test28 ()
+
+  /**
+   * Tells whether every byte of the page is zero.
+   */
+  private static boolean isBlank(Page page) {
+    byte[] bytes = new byte[PAGE_SIZE];
+    page.getBytes(0, bytes, 0, PAGE_SIZE);
+    for (byte b : bytes) {
+      if (b != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Pins and unpins a page in the given pool.
+   */
+  private static void touch(BufMgr pool, int pid, int priority) {
+    PageId pageno = new PageId(pid);
+    pool.pinPage(pageno, new Page(), PIN_DISKIO);
+    pool.unpinPage(pageno, UNPIN_CLEAN, priority);
+  }
+
+  /**
+   * True if the page is resident in the given pool.
+   */
+  private static boolean isResident(BufMgr pool, int pid) {
+    for (int resident : pool.getResidentPages()) {
+      if (resident == pid) {
+        return true;
+      }
+    }
+    return false;
+  }
+
 } // class BMTest extends TestDriver
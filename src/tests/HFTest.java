@@ -21,21 +21,27 @@ class HFTest extends TestDriver {
 	private static final int FILE_SIZE = 6500;
 
 	/**
-	 * Test application entry point; runs all tests.
+	 * Test application entry point; runs all tests with the buffer pool on
+	 * the heap, then again with it off-heap.
 	 */
 	public static void main(String argv[]) {
 
-		// create a clean Minibase instance
-		HFTest hft = new HFTest();
-		hft.create_minibase();
-
-		// run all the test cases
-		System.out.println("\n" + "Running " + TEST_NAME + "...");
 		boolean status = PASS;
-		status &= hft.test1();
-		status &= hft.test2();
-		status &= hft.test3();
-		status &= hft.test4();
+		for (boolean offheap : new boolean[] { false, true }) {
+
+			// create a clean Minibase instance
+			HFTest hft = new HFTest();
+			hft.BUF_OFFHEAP = offheap;
+			hft.create_minibase();
+
+			// run all the test cases
+			System.out.println("\n" + "Running " + TEST_NAME + (offheap ? " off-heap" : "") + "...");
+			status &= hft.test1();
+			status &= hft.test2();
+			status &= hft.test3();
+			status &= hft.test4();
+			Minibase.DiskManager.closeDB();
+		}
 
 		// display the final results
 		System.out.println();
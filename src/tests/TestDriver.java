@@ -4,6 +4,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Random;
 
+import diskmgr.DiskMgr;
 import global.GlobalConst;
 import global.Minibase;
 
@@ -33,6 +34,15 @@ class TestDriver implements GlobalConst {
 	/** Default buffer pool replacement policy */
 	protected String BUF_POLICY = "Clock";
 
+	/** Keep the buffer pool in off-heap memory */
+	protected boolean BUF_OFFHEAP = false;
+
+	/** Reload the pages resident at the last close when loading */
+	protected boolean BUF_WARMUP = false;
+
+	/** Map the database file into memory */
+	protected boolean DISK_MAPPED = false;
+
 	// --------------------------------------------------------------------------
 
 	/** Random generator; use the same seed to make tests deterministic. */
@@ -68,6 +78,7 @@ class TestDriver implements GlobalConst {
 	 */
 	protected void delete_minibase() {
 		new File(DB_PATH).delete();
+		new File(DB_PATH + DiskMgr.WARM_SUFFIX).delete();
 	}
 
 	/**
@@ -75,7 +86,8 @@ class TestDriver implements GlobalConst {
 	 */
 	protected void create_minibase() {
 		System.out.println("Creating database...\nReplacer: " + BUF_POLICY);
-		new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, BUF_POLICY, false);
+		new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, BUF_POLICY, false,
+				new Minibase.Options().offheap(BUF_OFFHEAP).mapped(DISK_MAPPED));
 	}
 
 	/**
@@ -83,7 +95,9 @@ class TestDriver implements GlobalConst {
 	 */
 	protected void load_minibase() {
 		System.out.println("Loading database...\nReplacer: " + BUF_POLICY);
-		new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, BUF_POLICY, true);
+		new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, BUF_POLICY, true,
+				new Minibase.Options().offheap(BUF_OFFHEAP).warmup(BUF_WARMUP)
+						.mapped(DISK_MAPPED));
 	}
 
 	// --------------------------------------------------------------------------